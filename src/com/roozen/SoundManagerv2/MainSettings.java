@@ -15,9 +15,6 @@
  */
 package com.roozen.SoundManagerv2;
 
-import java.util.HashMap;
-
-
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -26,10 +23,10 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.media.AudioManager;
-import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Parcelable;
 import android.view.*;
 import android.widget.Button;
@@ -39,9 +36,9 @@ import android.widget.Toast;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 
 import com.roozen.SoundManagerv2.provider.ScheduleProvider;
+import com.roozen.SoundManagerv2.schedule.ScheduleCounts;
 import com.roozen.SoundManagerv2.schedule.ScheduleList;
 import com.roozen.SoundManagerv2.services.BootupService;
-import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
 import com.roozen.SoundManagerv2.utils.Util;
 
 class CustomSeekBarChangeListener implements SeekBar.OnSeekBarChangeListener {
@@ -78,12 +75,14 @@ public class MainSettings extends Activity {
     public final static int ACTIVITY_MUTE = 1;
     public final static int ACTIVITY_RINGMODE = 2;
 
-    public static HashMap<Integer, Integer> mActiveCount;
     private boolean hasShownVolumeCouplingWarning;
     private Boolean isVolumeCoupled = null;
 
     public static long time = 0;
 
+    //updates the status text only when the number of active schedules changes
+    private ContentObserver countsObserver;
+
     /**
      * Called when the activity is first created.
      */
@@ -101,6 +100,14 @@ public class MainSettings extends Activity {
         setupButtons();
         setStatusText();
 
+        countsObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                setStatusText();
+            }
+        };
+        getContentResolver().registerContentObserver(ScheduleProvider.COUNTS_URI, false, countsObserver);
+
         Intent i = new Intent(gui, TutorialActivity.class);
         startActivityForResult(i, ACTIVITY_LIST);
     }
@@ -111,6 +118,12 @@ public class MainSettings extends Activity {
         updateSeekBars();
     }
 
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(countsObserver);
+        super.onDestroy();
+    }
+
     private void setupSeekbars() {
         SeekBar volumeSeek = (SeekBar) findViewById(R.id.system_seekbar);
         volumeSeek.setOnSeekBarChangeListener(new CustomSeekBarChangeListener(AudioManager.STREAM_SYSTEM, this, volumeSeek));
@@ -190,19 +203,17 @@ public class MainSettings extends Activity {
 
     private void setStatusText() {
 
-        countActiveSchedules();
-
         TextView systemText = (TextView) findViewById(R.id.system_timer_text);
-        systemText.setText(getScheduleCountText(AudioManager.STREAM_SYSTEM));
+        systemText.setText(getScheduleCountText(this, AudioManager.STREAM_SYSTEM));
 
         TextView ringerText = (TextView) findViewById(R.id.ringer_timer_text);
-        ringerText.setText(getScheduleCountText(AudioManager.STREAM_RING));
+        ringerText.setText(getScheduleCountText(this, AudioManager.STREAM_RING));
 
         TextView notifText = (TextView) findViewById(R.id.notif_timer_text);
-        notifText.setText(getScheduleCountText(AudioManager.STREAM_NOTIFICATION));
+        notifText.setText(getScheduleCountText(this, AudioManager.STREAM_NOTIFICATION));
 
         TextView mediaText = (TextView) findViewById(R.id.media_timer_text);
-        mediaText.setText(getScheduleCountText(AudioManager.STREAM_MUSIC));
+        mediaText.setText(getScheduleCountText(this, AudioManager.STREAM_MUSIC));
     }
 
     @Override
@@ -268,40 +279,13 @@ public class MainSettings extends Activity {
         return super.onOptionsItemSelected(item);
     }
 
-    private void countActiveSchedules() {
-
-        mActiveCount = new HashMap<Integer, Integer>();
-
-        /*
-        * get all active schedules, count them by type
-        */
-        Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, "active");
-        Cursor scheduleCursor = managedQuery(schedulesUri, null, null, null, null);
-
-        if (scheduleCursor.moveToFirst()) {
-
-            int typeIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_TYPE);
-
-            do {
-
-                if (!mActiveCount.containsKey(scheduleCursor.getInt(typeIndex))) {
-                    mActiveCount.put(scheduleCursor.getInt(typeIndex), 0);
-                }
-
-                mActiveCount.put(scheduleCursor.getInt(typeIndex), mActiveCount.get(scheduleCursor.getInt(typeIndex)).intValue() + 1);
-
-            } while (scheduleCursor.moveToNext());
-
-        }
-    }
-
-    public static String getScheduleCountText(int volumeType) {
+    public static String getScheduleCountText(Context context, int volumeType) {
         String result = "";
 
-        if (mActiveCount.containsKey(volumeType) &&
-                mActiveCount.get(volumeType) > 0) {
-            result = mActiveCount.get(volumeType).toString() + " active schedule";
-            result += mActiveCount.get(volumeType) > 1 ? "s" : "";
+        int count = ScheduleCounts.getActiveCount(context, volumeType);
+        if (count > 0) {
+            result = count + " active schedule";
+            result += count > 1 ? "s" : "";
         }
 
         return result;
@@ -314,10 +298,6 @@ public class MainSettings extends Activity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
-        if (requestCode == ACTIVITY_LIST) {
-            setStatusText();
-        }
-
         updateSeekBars();
     }
 
@@ -3,19 +3,16 @@ package com.roozen.SoundManagerv2;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.media.AudioManager;
-import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
 import android.widget.Button;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import com.roozen.SoundManagerv2.provider.ScheduleProvider;
 import com.roozen.SoundManagerv2.schedule.ScheduleList;
-import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
-
-import java.util.HashMap;
 
 /**
  * Created by IntelliJ IDEA.
@@ -28,6 +25,9 @@ public class MoreSettings extends Activity {
 
     private AudioManager audio;
 
+    //updates the status text only when the number of active schedules changes
+    private ContentObserver countsObserver;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -38,6 +38,14 @@ public class MoreSettings extends Activity {
         setupSeekbars();
         setupButtons();
         setStatusText();
+
+        countsObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                setStatusText();
+            }
+        };
+        getContentResolver().registerContentObserver(ScheduleProvider.COUNTS_URI, false, countsObserver);
     }
 
 
@@ -47,40 +55,18 @@ public class MoreSettings extends Activity {
         updateSeekBars();
     }
 
-    public void countActiveSchedules() {
-	    MainSettings.mActiveCount = new HashMap<Integer,Integer>();
-
-        /*
-         * get all active schedules, count them by type
-         */
-        Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, "active");
-        Cursor scheduleCursor = managedQuery(schedulesUri, null, null, null, null);
-
-        if (scheduleCursor.moveToFirst()) {
-
-            int typeIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_TYPE);
-
-            do {
-
-                if (!MainSettings.mActiveCount.containsKey(scheduleCursor.getInt(typeIndex))) {
-                    MainSettings.mActiveCount.put(scheduleCursor.getInt(typeIndex), 0);
-                }
-
-                MainSettings.mActiveCount.put(scheduleCursor.getInt(typeIndex), MainSettings.mActiveCount.get(scheduleCursor.getInt(typeIndex)).intValue()+1);
-
-            } while(scheduleCursor.moveToNext());
-
-        }
-	}
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(countsObserver);
+        super.onDestroy();
+    }
 
     private void setStatusText() {
-        countActiveSchedules();
-
         TextView alarmText = (TextView) findViewById(R.id.alarm_timer_text);
-        alarmText.setText(MainSettings.getScheduleCountText(AudioManager.STREAM_ALARM));
+        alarmText.setText(MainSettings.getScheduleCountText(this, AudioManager.STREAM_ALARM));
 
         TextView incallText = (TextView) findViewById(R.id.phonecall_timer_text);
-        incallText.setText(MainSettings.getScheduleCountText(AudioManager.STREAM_VOICE_CALL));
+        incallText.setText(MainSettings.getScheduleCountText(this, AudioManager.STREAM_VOICE_CALL));
     }
 
     private void setupButtons() {
@@ -124,10 +110,6 @@ public class MoreSettings extends Activity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
-        if (requestCode == MainSettings.ACTIVITY_LIST) {
-            setStatusText();
-        }
-
         updateSeekBars();
     }
 
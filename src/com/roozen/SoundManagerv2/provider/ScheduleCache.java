@@ -0,0 +1,244 @@
+/**
+ * Copyright 2009 Mike Partridge
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, 
+ * software distributed under the License is distributed 
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language 
+ * governing permissions and limitations under the License. 
+ */
+package com.roozen.SoundManagerv2.provider;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.roozen.SoundManagerv2.schedule.Schedule;
+import com.roozen.SoundManagerv2.schedule.ScheduleSet;
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+
+/**
+ * The ScheduleProvider's copy of the whole schedules table, every row
+ * packed into a long (see Schedule.pack()) in a ScheduleSet. The
+ * provider writes through it on every change, so reads never need the db.
+ * 
+ * @author Mike Partridge
+ */
+class ScheduleCache {
+
+    private final ScheduleSet mSchedules;
+
+    /*
+     * generation each schedule written since the load was read at; writers
+     * read the db outside of any lock, so a later read can land first
+     */
+    private final HashMap<Integer, Long> mWrittenAt = new HashMap<Integer, Long>();
+
+    /**
+     * @param packed every schedule, packed
+     */
+    ScheduleCache(long[] packed) {
+        mSchedules = new ScheduleSet(packed);
+    }
+
+    /**
+     * @param id
+     * @return packed schedule, or -1 if there's no such schedule
+     */
+    synchronized long get(int id) {
+        return mSchedules.get(id);
+    }
+
+    /**
+     * Adds, replaces or removes the schedule as it was read from the db,
+     * unless the cache already has it from a read at a later generation
+     * 
+     * @param id
+     * @param packed the schedule, or -1 if it's gone
+     * @param generation of the db the schedule was read at
+     */
+    synchronized void write(int id, long packed, long generation) {
+        Long writtenAt = mWrittenAt.get(id);
+        if (writtenAt != null && writtenAt.longValue() > generation) {
+            return;
+        }
+        mWrittenAt.put(id, generation);
+
+        if (packed >= 0) {
+            mSchedules.put(packed);
+        }
+        else {
+            mSchedules.remove(id);
+        }
+    }
+
+    /**
+     * @param id
+     * @param columns
+     * @return cursor over the one schedule, empty if there's no such schedule
+     */
+    synchronized Cursor querySchedule(int id, String[] columns) {
+        MatrixCursor c = new MatrixCursor(columns, 1);
+
+        long packed = mSchedules.get(id);
+        if (packed >= 0) {
+            addRow(c, columns, packed);
+        }
+
+        return c;
+    }
+
+    /**
+     * @param volumeType
+     * @param columns
+     * @param afterSortKey only schedules past this sort key, or past it and afterId; -1 for all
+     * @param afterId
+     * @param limit most schedules returned; -1 for all
+     * @return cursor over the stream's schedules, in SCHEDULE_DEFAULT_ORDER
+     */
+    synchronized Cursor queryType(int volumeType, String[] columns, int afterSortKey, int afterId, int limit) {
+
+        /*
+         * sort key above the index, so sorting puts them in list order;
+         * the set is in id order, so the index breaks ties as the id would
+         */
+        long[] order = new long[mSchedules.size()];
+        int count = 0;
+        for (int i = 0; i < mSchedules.size(); i++) {
+            long packed = mSchedules.getPackedAt(i);
+            if (Schedule.getVolumeType(packed) == volumeType) {
+                int sortKey = Schedule.getSortKey(packed);
+                
+                if (afterSortKey < 0 || sortKey > afterSortKey
+                        || (sortKey == afterSortKey && Schedule.getId(packed) > afterId)) {
+                    order[count++] = ((long) sortKey << 32) | i;
+                }
+            }
+        }
+        Arrays.sort(order, 0, count);
+        
+        if (limit >= 0 && limit < count) {
+            count = limit;
+        }
+
+        MatrixCursor c = new MatrixCursor(columns, count);
+        for (int i = 0; i < count; i++) {
+            addRow(c, columns, mSchedules.getPackedAt((int) order[i]));
+        }
+
+        return c;
+    }
+
+    /**
+     * @param columns ScheduleProvider.PACKED
+     * @return cursor over the active schedules, packed, by id
+     */
+    synchronized Cursor queryActivePacked(String[] columns) {
+        MatrixCursor c = new MatrixCursor(columns, mSchedules.size());
+
+        for (int i = 0; i < mSchedules.size(); i++) {
+            long packed = mSchedules.getPackedAt(i);
+            if (Schedule.isActive(packed)) {
+                c.addRow(new Object[] {packed});
+            }
+        }
+
+        return c;
+    }
+
+    /**
+     * @param columns
+     * @return cursor over the active schedules, by type then id
+     */
+    synchronized Cursor queryActive(String[] columns) {
+        MatrixCursor c = new MatrixCursor(columns, mSchedules.size());
+
+        for (int type = 0; type < 8; type++) {
+            for (int i = 0; i < mSchedules.size(); i++) {
+                long packed = mSchedules.getPackedAt(i);
+                if (Schedule.isActive(packed) && Schedule.getVolumeType(packed) == type) {
+                    addRow(c, columns, packed);
+                }
+            }
+        }
+
+        return c;
+    }
+
+    /**
+     * @param columns SCHEDULE_TYPE and ACTIVE_COUNT
+     * @return cursor over the number of active schedules of each type that has any
+     */
+    synchronized Cursor queryActiveCounts(String[] columns) {
+        int[] counts = new int[8];
+        for (int i = 0; i < mSchedules.size(); i++) {
+            long packed = mSchedules.getPackedAt(i);
+            if (Schedule.isActive(packed)) {
+                counts[Schedule.getVolumeType(packed)]++;
+            }
+        }
+
+        MatrixCursor c = new MatrixCursor(columns);
+        for (int type = 0; type < counts.length; type++) {
+            if (counts[type] > 0) {
+                c.addRow(new Object[] {type, counts[type]});
+            }
+        }
+
+        return c;
+    }
+
+    /*
+     * fills a row from the packed schedule; columns are those of the
+     * provider's default projections
+     */
+    private static void addRow(MatrixCursor c, String[] columns, long packed) {
+        if (columns.length == 1) {
+            //ScheduleProvider.PACKED
+            c.addRow(new Object[] {packed});
+            return;
+        }
+
+        Object[] row = new Object[columns.length];
+
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i];
+
+            if (column.equals(SQLiteDatabaseHelper.SCHEDULE_ID)) {
+                row[i] = Schedule.getId(packed);
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_TYPE)) {
+                row[i] = Schedule.getVolumeType(packed);
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_START_HOUR)) {
+                row[i] = Schedule.getMinuteOfDay(packed) / 60;
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE)) {
+                row[i] = Schedule.getMinuteOfDay(packed) % 60;
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_VOLUME)) {
+                row[i] = Schedule.getVolume(packed);
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_VIBRATE)) {
+                row[i] = Schedule.isVibrate(packed) ? 1 : 0;
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_ACTIVE)) {
+                row[i] = Schedule.isActive(packed) ? 1 : 0;
+            }
+            else if (column.equals(SQLiteDatabaseHelper.SCHEDULE_DAYS)) {
+                row[i] = Schedule.getDays(packed);
+            }
+        }
+
+        c.addRow(row);
+    }
+
+}
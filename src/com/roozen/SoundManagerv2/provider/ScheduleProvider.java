@@ -16,16 +16,23 @@
 package com.roozen.SoundManagerv2.provider;
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 
+import com.roozen.SoundManagerv2.schedule.Schedule;
 import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
 
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.media.AudioManager;
 import android.net.Uri;
@@ -45,13 +52,78 @@ public class ScheduleProvider extends ContentProvider {
     //Content Provider requisites
     private static final UriMatcher sUriMatcher;
     private static HashMap<String, String> sGoalProjectionMap;
+    private static HashMap<String, String> sCountsProjectionMap;
+    private static HashMap<String, String> sPackedProjectionMap;
     
     private SQLiteDatabaseHelper mDbHelper = null;
     
+    /*
+     * whole table in memory, loaded on first read. Only the fields are 
+     * guarded by the provider's lock, never a db call, and the cache
+     * guards its own rows
+     */
+    private ScheduleCache mCache = null;
+    
+    //writes made while the cache wasn't loaded, so a load that read the table before one isn't kept
+    private int mUnloadedWrites = 0;
+    
+    //generation of the schedules as last read from the db, -1 until then
+    private static volatile long sGeneration = -1;
+    
+    //one schedule packed, or null if it doesn't exist, with the generation it was read at
+    private static final String PACKED_ROW_QUERY = 
+        "select (select " + SQLiteDatabaseHelper.SCHEDULE_PACKED_EXPRESSION 
+        + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE + " where " + SQLiteDatabaseHelper.SCHEDULE_ID + "=?), "
+        + SQLiteDatabaseHelper.GENERATION_VALUE + " from " + SQLiteDatabaseHelper.GENERATION_TABLE;
+    
+    private static final String GENERATION_QUERY = 
+        "select " + SQLiteDatabaseHelper.GENERATION_VALUE + " from " + SQLiteDatabaseHelper.GENERATION_TABLE;
+    
+    private static final String DAYS_QUERY = 
+        "select " + SQLiteDatabaseHelper.SCHEDULE_DAYS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+        + " where " + SQLiteDatabaseHelper.SCHEDULE_ID + "=?";
+    
     private static final int NOFILTER = 0;
     private static final int SCHEDULE_ID = 1;
     private static final int SCHEDULE_TYPE = 2;
     private static final int ALL_ACTIVE = 3;
+    private static final int ACTIVE_COUNTS = 4;
+    private static final int SCHEDULE_PACKED = 5;
+    private static final int ACTIVE_PACKED = 6;
+    private static final int GENERATION = 7;
+    
+    /**
+     * count column of the schedules/counts URI, next to SCHEDULE_TYPE
+     */
+    public static final String ACTIVE_COUNT = "_count";
+    
+    /**
+     * only column of the packed URIs: the whole schedule in one long, see Schedule.pack()
+     */
+    public static final String PACKED = "_packed";
+    
+    /*
+     * query parameters of the type URI, for reading it a page at a time; 
+     * see getTypeUri(int, long, int)
+     */
+    private static final String PARAM_AFTER_SORT_KEY = "afterSortKey";
+    private static final String PARAM_AFTER_ID = "afterId";
+    private static final String PARAM_LIMIT = "limit";
+    
+    /**
+     * notified when any schedule becomes or stops being active, or an active one changes
+     */
+    public static final Uri ACTIVE_URI = Uri.withAppendedPath(CONTENT_URI, "active");
+    
+    /**
+     * notified only when the number of active schedules of some type changes
+     */
+    public static final Uri COUNTS_URI = Uri.withAppendedPath(CONTENT_URI, "counts");
+    
+    /**
+     * notified along with every write
+     */
+    public static final Uri GENERATION_URI = Uri.withAppendedPath(CONTENT_URI, "generation");
 
     public static final String MIME_SYSTEM = "system";
     public static final String MIME_RINGER = "ringer";
@@ -60,6 +132,31 @@ public class ScheduleProvider extends ContentProvider {
     public static final String MIME_ALARM = "alarm";
     public static final String MIME_INCALL = "incall";
     
+    //columns returned when the caller doesn't ask for any; leaves out the old day columns
+    private static final String[] sDefaultProjection = {
+        SQLiteDatabaseHelper.SCHEDULE_ID,
+        SQLiteDatabaseHelper.SCHEDULE_TYPE,
+        SQLiteDatabaseHelper.SCHEDULE_START_HOUR,
+        SQLiteDatabaseHelper.SCHEDULE_START_MINUTE,
+        SQLiteDatabaseHelper.SCHEDULE_VOLUME,
+        SQLiteDatabaseHelper.SCHEDULE_VIBRATE,
+        SQLiteDatabaseHelper.SCHEDULE_ACTIVE,
+        SQLiteDatabaseHelper.SCHEDULE_DAYS
+    };
+    private static final String[] sCountsProjection = {
+        SQLiteDatabaseHelper.SCHEDULE_TYPE,
+        ACTIVE_COUNT
+    };
+    private static final String[] sPackedProjection = {
+        PACKED
+    };
+    
+    //every schedule packed, in id order, to fill the cache
+    private static String sAllPackedQuery;
+    
+    //stream type of each mime type in URIs
+    private static final HashMap<String, Integer> sVolumeTypes = new HashMap<String, Integer>();
+    
 	/*
 	 * initialize sUriMatcher and sGoalProjectionMap
 	 */
@@ -72,6 +169,10 @@ public class ScheduleProvider extends ContentProvider {
         sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/#", SCHEDULE_ID);
         sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/type/*", SCHEDULE_TYPE);
         sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/active", ALL_ACTIVE);
+        sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/counts", ACTIVE_COUNTS);
+        sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/#/packed", SCHEDULE_PACKED);
+        sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/active/packed", ACTIVE_PACKED);
+        sUriMatcher.addURI(ScheduleProvider.AUTHORITY, SQLiteDatabaseHelper.SCHEDULE_TABLE + "/generation", GENERATION);
         
         /*
          * defines the columns returned for any query
@@ -84,13 +185,45 @@ public class ScheduleProvider extends ContentProvider {
         sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_VOLUME, SQLiteDatabaseHelper.SCHEDULE_VOLUME);
         sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_VIBRATE, SQLiteDatabaseHelper.SCHEDULE_VIBRATE);
         sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_ACTIVE, SQLiteDatabaseHelper.SCHEDULE_ACTIVE);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY0, SQLiteDatabaseHelper.SCHEDULE_DAY0);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY1, SQLiteDatabaseHelper.SCHEDULE_DAY1);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY2, SQLiteDatabaseHelper.SCHEDULE_DAY2);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY3, SQLiteDatabaseHelper.SCHEDULE_DAY3);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY4, SQLiteDatabaseHelper.SCHEDULE_DAY4);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY5, SQLiteDatabaseHelper.SCHEDULE_DAY5);
-        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAY6, SQLiteDatabaseHelper.SCHEDULE_DAY6);
+        sGoalProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_DAYS, SQLiteDatabaseHelper.SCHEDULE_DAYS);
+        
+        /*
+         * the day columns were packed into SCHEDULE_DAYS in db v5; 
+         * keep answering to the old names by unpacking their bit
+         */
+        for (int day = 0; day < SQLiteDatabaseHelper.SCHEDULE_DAY_COLUMNS.length; day++) {
+            String column = SQLiteDatabaseHelper.SCHEDULE_DAY_COLUMNS[day];
+            sGoalProjectionMap.put(column, 
+                    "((" + SQLiteDatabaseHelper.SCHEDULE_DAYS + " >> " + day + ") & 1) AS " + column);
+        }
+        
+        /*
+         * active schedules counted per type
+         */
+        sCountsProjectionMap = new HashMap<String,String>();
+        sCountsProjectionMap.put(SQLiteDatabaseHelper.SCHEDULE_TYPE, SQLiteDatabaseHelper.SCHEDULE_TYPE);
+        sCountsProjectionMap.put(ACTIVE_COUNT, "count(*) AS " + ACTIVE_COUNT);
+        
+        /*
+         * whole schedules packed in SQL, same layout as Schedule.pack()
+         */
+        sPackedProjectionMap = new HashMap<String,String>();
+        sPackedProjectionMap.put(PACKED, SQLiteDatabaseHelper.SCHEDULE_PACKED_EXPRESSION + " AS " + PACKED);
+        
+        /*
+         * the query that fills the cache
+         */
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(SQLiteDatabaseHelper.SCHEDULE_TABLE);
+        qb.setProjectionMap(sPackedProjectionMap);
+        sAllPackedQuery = qb.buildQuery(sPackedProjection, null, null, null, null, SQLiteDatabaseHelper.SCHEDULE_ID, null);
+        
+        sVolumeTypes.put(MIME_SYSTEM, AudioManager.STREAM_SYSTEM);
+        sVolumeTypes.put(MIME_RINGER, AudioManager.STREAM_RING);
+        sVolumeTypes.put(MIME_NOTIF, AudioManager.STREAM_NOTIFICATION);
+        sVolumeTypes.put(MIME_MEDIA, AudioManager.STREAM_MUSIC);
+        sVolumeTypes.put(MIME_ALARM, AudioManager.STREAM_ALARM);
+        sVolumeTypes.put(MIME_INCALL, AudioManager.STREAM_VOICE_CALL);
         
     }
     
@@ -101,28 +234,9 @@ public class ScheduleProvider extends ContentProvider {
      * @return int volume type
      */
     private static int getVolumeType(String mimeType) {
-        int volumeType = AudioManager.STREAM_SYSTEM;
+        Integer volumeType = sVolumeTypes.get(mimeType);
         
-        if (mimeType.equals(MIME_SYSTEM)) {
-            volumeType = AudioManager.STREAM_SYSTEM;
-        }
-        else if (mimeType.equals(MIME_RINGER)) {
-            volumeType = AudioManager.STREAM_RING;
-        }
-        else if (mimeType.equals(MIME_NOTIF)) {
-            volumeType = AudioManager.STREAM_NOTIFICATION;
-        }
-        else if (mimeType.equals(MIME_MEDIA)) {
-            volumeType = AudioManager.STREAM_MUSIC;
-        }
-        else if (mimeType.equals(MIME_ALARM)) {
-            volumeType = AudioManager.STREAM_ALARM;
-        }
-        else if (mimeType.equals(MIME_INCALL)) {
-            volumeType = AudioManager.STREAM_VOICE_CALL;
-        }
-        
-        return volumeType;
+        return volumeType != null ? volumeType.intValue() : AudioManager.STREAM_SYSTEM;
     }
 
     /**
@@ -166,6 +280,115 @@ public class ScheduleProvider extends ContentProvider {
         return mimeType;
     }
     
+    /**
+     * Folds any of the old day columns in the values into the SCHEDULE_DAYS 
+     * bitmask, starting from the given mask for days that aren't mentioned
+     * 
+     * @param values
+     * @param days current mask
+     */
+    private static void packDays(ContentValues values, int days) {
+        if (!hasDayColumns(values)) {
+            return;
+        }
+        
+        
+        for (int day = 0; day < SQLiteDatabaseHelper.SCHEDULE_DAY_COLUMNS.length; day++) {
+            String column = SQLiteDatabaseHelper.SCHEDULE_DAY_COLUMNS[day];
+            
+            if (values.containsKey(column)) {
+                Integer set = values.getAsInteger(column);
+                if (set != null && set.intValue() > 0) {
+                    days |= (1 << day);
+                }
+                else {
+                    days &= ~(1 << day);
+                }
+                
+                values.remove(column);
+            }
+        }
+        
+        values.put(SQLiteDatabaseHelper.SCHEDULE_DAYS, days);
+    }
+    
+    /**
+     * @param values
+     * @return true if the values use any of the old day columns
+     */
+    private static boolean hasDayColumns(ContentValues values) {
+        for (String column : SQLiteDatabaseHelper.SCHEDULE_DAY_COLUMNS) {
+            if (values.containsKey(column)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param db writable db
+     * @param id
+     * @return days bitmask currently stored for the schedule, 0 if it doesn't exist
+     */
+    private static int getDays(SQLiteDatabase db, String id) {
+        try {
+            return (int) DatabaseUtils.longForQuery(db, DAYS_QUERY, new String[] {id});
+        }
+        catch (SQLiteDoneException e) {
+            //no such schedule
+            return 0;
+        }
+    }
+    
+    /**
+     * Reads one schedule in packed form, see Schedule.pack(); for callers that
+     * want the whole row without going through the cursor's columns
+     * 
+     * @param cr
+     * @param id
+     * @return packed schedule, or -1 if it doesn't exist
+     */
+    public static long getSchedulePacked(ContentResolver cr, int id) {
+        long packed = -1;
+        
+        Uri packedUri = Uri.withAppendedPath(CONTENT_URI, id + "/packed");
+        Cursor c = cr.query(packedUri, null, null, null, null);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                packed = c.getLong(0);
+            }
+            c.close();
+        }
+        
+        return packed;
+    }
+    
+    /**
+     * Reads all active schedules in packed form, see Schedule.pack(), ordered by id;
+     * a ScheduleSet sorts them anyway, so callers building one don't rely on that
+     * 
+     * @param cr
+     * @return packed schedules
+     */
+    public static long[] getActivePacked(ContentResolver cr) {
+        long[] packed = new long[0];
+        
+        Uri packedUri = Uri.withAppendedPath(CONTENT_URI, "active/packed");
+        Cursor c = cr.query(packedUri, null, null, null, null);
+        if (c != null) {
+            packed = new long[c.getCount()];
+            
+            int size = 0;
+            while (c.moveToNext() && size < packed.length) {
+                packed[size++] = c.getLong(0);
+            }
+            c.close();
+        }
+        
+        return packed;
+    }
+    
     /* (non-Javadoc)
      * @see android.content.ContentProvider#onCreate()
      */
@@ -187,6 +410,14 @@ public class ScheduleProvider extends ContentProvider {
                 return "vnd.android.cursor.dir/" + AUTHORITY + ".type";
             case ALL_ACTIVE:
                 return "vnd.android.cursor.dir/" + AUTHORITY + ".active";
+            case ACTIVE_COUNTS:
+                return "vnd.android.cursor.dir/" + AUTHORITY + ".counts";
+            case SCHEDULE_PACKED:
+                return "vnd.android.cursor.item/" + AUTHORITY + ".packed";
+            case ACTIVE_PACKED:
+                return "vnd.android.cursor.dir/" + AUTHORITY + ".packed";
+            case GENERATION:
+                return "vnd.android.cursor.item/" + AUTHORITY + ".generation";
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
             }
@@ -212,6 +443,7 @@ public class ScheduleProvider extends ContentProvider {
             }
             
             values = new ContentValues(initialValues);
+            packDays(values, 0);
         } 
         else {
             throw new IllegalArgumentException("Type value is required on insert.");
@@ -223,9 +455,9 @@ public class ScheduleProvider extends ContentProvider {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
         long rowId = db.insert(SQLiteDatabaseHelper.SCHEDULE_TABLE, null, values);
         if (rowId > 0) {            
-            Uri noteUri = ContentUris.withAppendedId(ScheduleProvider.CONTENT_URI, rowId);
-            getContext().getContentResolver().notifyChange(noteUri, null);
-            return noteUri;
+            notifyChanges(getChanges(rowId, -1, writeThrough(db, rowId)));
+            
+            return ContentUris.withAppendedId(ScheduleProvider.CONTENT_URI, rowId);
         }
 
         throw new SQLException("Failed to insert row into " + uri);
@@ -237,60 +469,210 @@ public class ScheduleProvider extends ContentProvider {
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection,
 			String[] selectionArgs, String sortOrder) {
-	    SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
-        
-	    String orderBy;
-        // If no sort order is specified use the default
-        if (TextUtils.isEmpty(sortOrder)) {
-            orderBy = SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER;
-        } else {
-            orderBy = sortOrder;
-        }
-
+	    int match = sUriMatcher.match(uri);
+	    
+	    if (match == GENERATION) {
+	        MatrixCursor c = new MatrixCursor(new String[] {SQLiteDatabaseHelper.GENERATION_VALUE}, 1);
+	        c.addRow(new Object[] {readGeneration()});
+	        return c;
+	    }
+	    
 	    /*
 	     * act on supported query URIs 
 	     */
-	    switch (sUriMatcher.match(uri)) {
+	    String[] uriArgs;
+	    switch (match) {
 
 	        case SCHEDULE_TYPE:
-	            qb.setTables(SQLiteDatabaseHelper.SCHEDULE_TABLE);
-	            qb.setProjectionMap(sGoalProjectionMap);
 	            {
 	                String mimeType = uri.getPathSegments().get(2);
-	                qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_TYPE + "=" + getVolumeType(mimeType));
+	                uriArgs = new String[] {String.valueOf(getVolumeType(mimeType))};
 	            }
 	            break;
 
 	        case SCHEDULE_ID:
-	            qb.setTables(SQLiteDatabaseHelper.SCHEDULE_TABLE);
-	            qb.setProjectionMap(sGoalProjectionMap);
-	            {
-	                String id = uri.getPathSegments().get(1);
-	                qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ID + "=" + id);
-	            }
+	        case SCHEDULE_PACKED:
+	            uriArgs = new String[] {uri.getPathSegments().get(1)};
 	            break;
 	            
 	        case ALL_ACTIVE:
-                qb.setTables(SQLiteDatabaseHelper.SCHEDULE_TABLE);
-                qb.setProjectionMap(sGoalProjectionMap);
-                qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1");
-                if (TextUtils.isEmpty(sortOrder)) {
-                    orderBy = SQLiteDatabaseHelper.SCHEDULE_TYPE;
-                }
-                break;
+	        case ACTIVE_COUNTS:
+	        case ACTIVE_PACKED:
+	            uriArgs = null;
+	            break;
 
 	        default:
 	            throw new IllegalArgumentException("Unknown URI " + uri);
 	    }
 
-	    // Get the database and run the query
-	    SQLiteDatabase db = mDbHelper.getReadableDatabase();
-	    Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	    /*
+	     * a page of a type's schedules starts past the last row of the page 
+	     * before, by sort key then id, so no earlier rows are read to skip them
+	     */
+	    int afterSortKey = -1;
+	    int afterId = -1;
+	    int limit = -1;
+	    if (match == SCHEDULE_TYPE) {
+	        afterSortKey = getIntParameter(uri, PARAM_AFTER_SORT_KEY);
+	        afterId = getIntParameter(uri, PARAM_AFTER_ID);
+	        limit = getIntParameter(uri, PARAM_LIMIT);
+	    }
+
+	    Cursor c;
+	    
+	    if (projection == null && selection == null && TextUtils.isEmpty(sortOrder)) {
+	        //what the app itself always asks for, straight from memory
+	        if (match == SCHEDULE_TYPE) {
+	            c = getCache().queryType(Integer.parseInt(uriArgs[0]), getDefaultProjection(match), 
+	                                     afterSortKey, afterId, limit);
+	        }
+	        else {
+	            c = queryCache(match, uriArgs);
+	        }
+	    }
+	    else {
+	        // Get the database and run the query
+	        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+	        String orderBy;
+	        // If no sort order is specified use the default
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = getDefaultOrder(match);
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        if (projection == null) {
+	            projection = getDefaultProjection(match);
+	        }
+	        
+	        //the URI's own filter comes first in the where clause, so do its args
+	        if (uriArgs != null && selectionArgs != null) {
+	            String[] args = new String[uriArgs.length + selectionArgs.length];
+	            System.arraycopy(uriArgs, 0, args, 0, uriArgs.length);
+	            System.arraycopy(selectionArgs, 0, args, uriArgs.length, selectionArgs.length);
+	            selectionArgs = args;
+	        }
+	        else if (uriArgs != null) {
+	            selectionArgs = uriArgs;
+	        }
+	        
+	        SQLiteQueryBuilder qb = newQueryBuilder(match);
+	        if (afterSortKey >= 0) {
+	            //both are ints parsed from the URI, safe to put in the SQL as they are
+	            qb.appendWhere(" AND (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + ">" + afterSortKey
+	                           + " OR (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + "=" + afterSortKey
+	                           + " AND " + SQLiteDatabaseHelper.SCHEDULE_ID + ">" + afterId + "))");
+	        }
+	        
+	        c = qb.query(db, projection, selection, selectionArgs, 
+	                     getGroupBy(match), null, orderBy, limit < 0 ? null : String.valueOf(limit));
+	    }
 
 	    // Tell the cursor what uri to watch, so it knows when its source data changes
 	    c.setNotificationUri(getContext().getContentResolver(), uri);
 	    return c;
 	}
+	
+	/**
+	 * Answers a query URI with its default projection and order from the cache
+	 * 
+	 * @param match
+	 * @param uriArgs
+	 * @return Cursor
+	 */
+	private Cursor queryCache(int match, String[] uriArgs) {
+	    ScheduleCache cache = getCache();
+	    String[] columns = getDefaultProjection(match);
+	    
+	    switch (match) {
+	        case SCHEDULE_ID:
+	        case SCHEDULE_PACKED:
+	            return cache.querySchedule(Integer.parseInt(uriArgs[0]), columns);
+	        case SCHEDULE_TYPE:
+	            return cache.queryType(Integer.parseInt(uriArgs[0]), columns, -1, -1, -1);
+	        case ALL_ACTIVE:
+	            return cache.queryActive(columns);
+	        case ACTIVE_PACKED:
+	            return cache.queryActivePacked(columns);
+	        default:
+	            return cache.queryActiveCounts(columns);
+	    }
+	}
+	
+	/**
+	 * Sets up a query builder for one of the query URIs, filtering 
+	 * on a bound argument where the URI has one
+	 * 
+	 * @param match
+	 * @return SQLiteQueryBuilder
+	 */
+	private static SQLiteQueryBuilder newQueryBuilder(int match) {
+	    SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+	    qb.setTables(SQLiteDatabaseHelper.SCHEDULE_TABLE);
+	    
+	    switch (match) {
+	        case SCHEDULE_TYPE:
+	            qb.setProjectionMap(sGoalProjectionMap);
+	            qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?");
+	            break;
+	            
+	        case SCHEDULE_ID:
+	            qb.setProjectionMap(sGoalProjectionMap);
+	            qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ID + "=?");
+	            break;
+	            
+	        case ALL_ACTIVE:
+	            qb.setProjectionMap(sGoalProjectionMap);
+	            qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1");
+	            break;
+	            
+	        case ACTIVE_COUNTS:
+	            qb.setProjectionMap(sCountsProjectionMap);
+	            qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1");
+	            break;
+	            
+	        case SCHEDULE_PACKED:
+	            qb.setProjectionMap(sPackedProjectionMap);
+	            qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ID + "=?");
+	            break;
+	            
+	        case ACTIVE_PACKED:
+	            qb.setProjectionMap(sPackedProjectionMap);
+	            qb.appendWhere(SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1");
+	            break;
+	    }
+	    
+	    return qb;
+	}
+	
+	private static String[] getDefaultProjection(int match) {
+	    switch (match) {
+	        case ACTIVE_COUNTS:
+	            return sCountsProjection;
+	        case SCHEDULE_PACKED:
+	        case ACTIVE_PACKED:
+	            return sPackedProjection;
+	        default:
+	            return sDefaultProjection;
+	    }
+	}
+	
+	private static String getDefaultOrder(int match) {
+	    if (match == ALL_ACTIVE || match == ACTIVE_COUNTS) {
+	        return SQLiteDatabaseHelper.SCHEDULE_TYPE;
+	    }
+	    else if (match == SCHEDULE_PACKED || match == ACTIVE_PACKED) {
+	        //rowid order, no sort needed
+	        return SQLiteDatabaseHelper.SCHEDULE_ID;
+	    }
+	    
+	    return SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER;
+	}
+	
+	private static String getGroupBy(int match) {
+	    return match == ACTIVE_COUNTS ? SQLiteDatabaseHelper.SCHEDULE_TYPE : null;
+	}
 
 	/* (non-Javadoc)
 	 * @see android.content.ContentProvider#update(android.net.Uri, android.content.ContentValues, java.lang.String, java.lang.String[])
@@ -299,6 +681,7 @@ public class ScheduleProvider extends ContentProvider {
 	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
         int count;
+        LinkedHashSet<Uri> changes = null;
         
         /*
          * allow update by ID only
@@ -310,14 +693,28 @@ public class ScheduleProvider extends ContentProvider {
             String whereClause = SQLiteDatabaseHelper.SCHEDULE_ID + "=?";
             String[] whereArgs = {id};
             
+            /*
+             * old day columns only touch their own bit, so start from what's stored
+             */
+            if (hasDayColumns(values) && !values.containsKey(SQLiteDatabaseHelper.SCHEDULE_DAYS)) {
+                values = new ContentValues(values);
+                packDays(values, getDays(db, id));
+            }
+            
+            long rowId = Long.parseLong(id);
+            long before = getCached((int) rowId);
+            
             count = db.update(SQLiteDatabaseHelper.SCHEDULE_TABLE, values, whereClause, whereArgs);
+            if (count > 0) {
+                changes = getChanges(rowId, before, writeThrough(db, rowId));
+            }
             break;
 
         default:
             throw new IllegalArgumentException("Invalid URI " + uri);
         }
         
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changes);
         
         return count;
 	}
@@ -326,9 +723,10 @@ public class ScheduleProvider extends ContentProvider {
      * @see android.content.ContentProvider#delete(android.net.Uri, java.lang.String, java.lang.String[])
      */
     @Override
-    public int delete(Uri uri, String where, String[] whereArgs) {
+    public int delete(Uri uri, String where, String[] selectionArgs) {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
         int count;
+        LinkedHashSet<Uri> changes = null;
         
         /*
          * delete by ID only
@@ -337,17 +735,260 @@ public class ScheduleProvider extends ContentProvider {
             
         case SCHEDULE_ID:
             String id = uri.getPathSegments().get(1);
-            String whereClause = SQLiteDatabaseHelper.SCHEDULE_ID + "=" + id;
+            String whereClause = SQLiteDatabaseHelper.SCHEDULE_ID + "=?";
+            String[] whereArgs = {id};
+            
+            int rowId = Integer.parseInt(id);
+            long before = getCached(rowId);
             
-            count = db.delete(SQLiteDatabaseHelper.SCHEDULE_TABLE, whereClause, null);
+            count = db.delete(SQLiteDatabaseHelper.SCHEDULE_TABLE, whereClause, whereArgs);
+            if (count > 0) {
+                changes = getChanges(rowId, before, writeThrough(db, rowId));
+            }
             break;
             
         default:
             throw new IllegalArgumentException("Invalid URI " + uri);
         }
         
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changes);
         
         return count;
     }
+    
+    /**
+     * Collects the URIs whose results a write to one schedule changed: the row
+     * itself, the list of each type it was or is of, the active list if it was
+     * or is active, and the counts if the set of active schedules per type moved
+     * 
+     * @param id
+     * @param before packed schedule before the write, -1 if there was none
+     * @param after packed schedule after the write, -1 if there is none
+     * @return changed URIs, each once
+     */
+    private static LinkedHashSet<Uri> getChanges(long id, long before, long after) {
+        LinkedHashSet<Uri> changes = new LinkedHashSet<Uri>();
+        
+        changes.add(ContentUris.withAppendedId(CONTENT_URI, id));
+        
+        int typeBefore = before < 0 ? -1 : Schedule.getVolumeType(before);
+        int typeAfter = after < 0 ? -1 : Schedule.getVolumeType(after);
+        if (typeBefore >= 0) {
+            changes.add(getTypeUri(typeBefore));
+        }
+        if (typeAfter >= 0) {
+            changes.add(getTypeUri(typeAfter));
+        }
+        
+        boolean activeBefore = before >= 0 && Schedule.isActive(before);
+        boolean activeAfter = after >= 0 && Schedule.isActive(after);
+        if (activeBefore || activeAfter) {
+            changes.add(ACTIVE_URI);
+            
+            if (activeBefore != activeAfter || typeBefore != typeAfter) {
+                changes.add(COUNTS_URI);
+            }
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * Moves to the next generation and tells the observers of each changed URI once
+     * 
+     * @param changes from getChanges(), or null if nothing was written
+     */
+    private void notifyChanges(LinkedHashSet<Uri> changes) {
+        if (changes == null) {
+            //nothing was written
+            return;
+        }
+        
+        readGeneration();
+        
+        ContentResolver cr = getContext().getContentResolver();
+        for (Uri uri : changes) {
+            cr.notifyChange(uri, null);
+        }
+        cr.notifyChange(GENERATION_URI, null);
+    }
+    
+    /**
+     * @param volumeType
+     * @return URI of the schedules of one type, e.g. schedules/type/ringer
+     */
+    public static Uri getTypeUri(int volumeType) {
+        return Uri.withAppendedPath(CONTENT_URI, "type/" + getMimeType(volumeType));
+    }
+    
+    /**
+     * Pages follow the default order, sort key then id, and pick up right after 
+     * the given schedule whatever was inserted or deleted before it meanwhile
+     * 
+     * @param volumeType
+     * @param after last schedule of the page before, packed; -1 for the first page
+     * @param limit most schedules in the page
+     * @return URI of one page of the schedules of one type
+     */
+    public static Uri getTypeUri(int volumeType, long after, int limit) {
+        Uri.Builder builder = getTypeUri(volumeType).buildUpon();
+        
+        if (after >= 0) {
+            builder.appendQueryParameter(PARAM_AFTER_SORT_KEY, String.valueOf(Schedule.getSortKey(after)));
+            builder.appendQueryParameter(PARAM_AFTER_ID, String.valueOf(Schedule.getId(after)));
+        }
+        builder.appendQueryParameter(PARAM_LIMIT, String.valueOf(limit));
+        
+        return builder.build();
+    }
+    
+    /*
+     * a non-negative int query parameter, or -1 if it's missing or isn't one
+     */
+    private static int getIntParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return -1;
+        }
+        
+        try {
+            return Math.max(-1, Integer.parseInt(value));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Anything built from the schedules can keep the generation it was built at, 
+     * and only rebuild once this has moved on. The generation is kept in the db 
+     * and bumped along with every write, so it also holds across restarts.
+     * 
+     * @param context
+     * @return generation of the schedules
+     */
+    public static long getGeneration(Context context) {
+        long generation = sGeneration;
+        
+        if (generation < 0) {
+            //not read in this process yet, or the provider lives in another one
+            Cursor c = context.getContentResolver().query(GENERATION_URI, null, null, null, null);
+            if (c != null) {
+                if (c.moveToFirst()) {
+                    generation = c.getLong(0);
+                }
+                c.close();
+            }
+        }
+        
+        return generation;
+    }
+    
+    /**
+     * @return generation as it is now in the db
+     */
+    private long readGeneration() {
+        long generation = DatabaseUtils.longForQuery(mDbHelper.getWritableDatabase(), GENERATION_QUERY, null);
+        
+        //two writers can get here out of order; keep the later generation
+        synchronized (ScheduleProvider.class) {
+            if (generation > sGeneration) {
+                sGeneration = generation;
+            }
+        }
+        
+        return generation;
+    }
+    
+    /**
+     * @return the cache, loading the whole table into it first if needed
+     */
+    private ScheduleCache getCache() {
+        int writes;
+        synchronized (this) {
+            if (mCache != null) {
+                return mCache;
+            }
+            writes = mUnloadedWrites;
+        }
+        
+        while (true) {
+            long[] packed = loadPacked();
+            
+            synchronized (this) {
+                //another thread's load may have won, or a write may have landed since this one read the table
+                if (mCache == null && writes == mUnloadedWrites) {
+                    mCache = new ScheduleCache(packed);
+                }
+                if (mCache != null) {
+                    return mCache;
+                }
+                writes = mUnloadedWrites;
+            }
+        }
+    }
+    
+    /*
+     * every schedule, packed, as the db has them now
+     */
+    private long[] loadPacked() {
+        Cursor c = mDbHelper.getReadableDatabase().rawQuery(sAllPackedQuery, null);
+        
+        long[] packed = new long[c.getCount()];
+        int size = 0;
+        while (c.moveToNext() && size < packed.length) {
+            packed[size++] = c.getLong(0);
+        }
+        c.close();
+        
+        return packed;
+    }
+    
+    /**
+     * @param id
+     * @return packed schedule, or -1 if there's no such schedule
+     */
+    private long getCached(int id) {
+        return getCache().get(id);
+    }
+    
+    /**
+     * Copies the row as it is now in the db into the cache, or out of it
+     * if the row is gone; if the cache isn't loaded yet, it loads the row 
+     * along with the rest of the table later
+     * 
+     * @param db writable db
+     * @param id
+     * @return the row packed, or -1 if it doesn't exist
+     */
+    private long writeThrough(SQLiteDatabase db, long id) {
+        long packed = -1;
+        long generation;
+        
+        Cursor c = db.rawQuery(PACKED_ROW_QUERY, new String[] {String.valueOf(id)});
+        try {
+            c.moveToFirst();
+            if (!c.isNull(0)) {
+                packed = c.getLong(0);
+            }
+            generation = c.getLong(1);
+        }
+        finally {
+            c.close();
+        }
+        
+        ScheduleCache cache;
+        synchronized (this) {
+            cache = mCache;
+            if (cache == null) {
+                mUnloadedWrites++;
+            }
+        }
+        
+        if (cache != null) {
+            cache.write((int) id, packed, generation);
+        }
+        
+        return packed;
+    }
 }
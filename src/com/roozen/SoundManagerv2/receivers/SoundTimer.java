@@ -15,28 +15,80 @@
  */
 package com.roozen.SoundManagerv2.receivers;
 
+import com.roozen.SoundManagerv2.services.BootupService;
 import com.roozen.SoundManagerv2.services.ChangeVolume;
+import com.roozen.SoundManagerv2.services.ScheduleWorker;
+import com.roozen.SoundManagerv2.utils.AlarmScheduler;
 
+import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 
 public class SoundTimer extends BroadcastReceiver {
 
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		
-		/*
-		 * pass schedule id onto the ChangeVolume service
-		 */
-		int scheduleId = Integer.parseInt(intent.getData().getPathSegments().get(1));
-		
-		if (scheduleId > 0) {
-            Intent i = new Intent(context, ChangeVolume.class);
-            i.setData(intent.getData());
-            context.startService(i);
+		if (AlarmScheduler.ACTION_TRANSITION.equals(intent.getAction())) {
+		    
+		    int[] ids = intent.getIntArrayExtra(AlarmScheduler.EXTRA_SCHEDULE_IDS);
+		    final int[] scheduleIds = ids != null ? ids : new int[0];
+		    final long triggerAt = intent.getLongExtra(AlarmScheduler.EXTRA_TRIGGER_AT, System.currentTimeMillis());
+		    final Context appContext = context.getApplicationContext();
+		    
+		    /*
+		     * apply the schedules due now as one batch, off the main thread, and
+		     * arm the alarm for the following transition once they're applied;
+		     * the pending broadcast keeps the process and the alarm's wake lock
+		     */
+		    boolean async = ScheduleWorker.postAsync(this, new Runnable() {
+		        
+		        public void run() {
+		            ChangeVolume.applyTransition(appContext, scheduleIds, triggerAt);
+		        }
+		        
+		    });
+		    
+		    /*
+		     * before API 11 the process may be killed as soon as onReceive
+		     * returns, so the work has to belong to a started service
+		     */
+		    if (!async) {
+		        Intent i = new Intent(context, ChangeVolume.class);
+		        i.putExtra(AlarmScheduler.EXTRA_SCHEDULE_IDS, scheduleIds);
+		        i.putExtra(AlarmScheduler.EXTRA_TRIGGER_AT, triggerAt);
+		        ScheduleWorker.startWakefulService(context, i);
+		    }
+		    
+		}
+		else if (intent.getData() != null) {
+		    
+		    /*
+		     * repeating per-schedule alarm left over from an older version;
+		     * apply it this once, then drop it in favor of the single alarm
+		     */
+		    startChangeVolume(context, intent.getData());
+		    
+		    AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+		    alarmManager.cancel(PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_CANCEL_CURRENT));
+		    
+		    ScheduleWorker.startWakefulService(context, new Intent(BootupService.ACTION_REARM, null, context, BootupService.class));
+		    
 		}
 		
 	}
+	
+	private void startChangeVolume(Context context, Uri scheduleUri) {
+	    int scheduleId = Integer.parseInt(scheduleUri.getPathSegments().get(1));
+	    
+	    if (scheduleId > 0) {
+	        Intent i = new Intent(context, ChangeVolume.class);
+	        i.setData(scheduleUri);
+	        ScheduleWorker.startWakefulService(context, i);
+	    }
+	}
 
 }
@@ -16,27 +16,55 @@
 package com.roozen.SoundManagerv2.schedule;
 
 /**
- * In-memory representation of a volume/vibrate schedule
+ * In-memory representation of a volume/vibrate schedule; immutable, and
+ * kept as its packed long, so the static accessors read the same fields
+ * straight from a packed schedule without making one of these
  * 
  * @author Mike Partridge
  */
 public class Schedule {
 
-    private int id;
-    private boolean mDay0;
-    private boolean mDay1;
-    private boolean mDay2;
-    private boolean mDay3;
-    private boolean mDay4;
-    private boolean mDay5;
-    private boolean mDay6;
-    private int mStartHour;
-    private int mStartMinute;
-    private int mVolume;
-    private int mVolumeType;
-    private boolean mVibrate;
-    private boolean mActive;
+    /**
+     * days mask with every day of the week set
+     */
+    public static final byte ALL_DAYS = 0x7f;
+
+    /*
+     * bit layout of the packed long form, low bits first: minute of day (11 bits),
+     * days (7), volume type (3), volume (8), vibrate (1), active (1), then the id
+     * in the upper 32 bits
+     */
+    public static final int PACKED_DAYS_SHIFT = 11;
+    public static final int PACKED_TYPE_SHIFT = 18;
+    public static final int PACKED_VOLUME_SHIFT = 21;
+    public static final int PACKED_VIBRATE_SHIFT = 29;
+    public static final int PACKED_ACTIVE_SHIFT = 30;
+    public static final int PACKED_ID_SHIFT = 32;
+
+    //every field but the id
+    private static final long PACKED_FIELDS_MASK = (1L << PACKED_ID_SHIFT) - 1;
+
+    private final long mPacked;
+    
+    private Schedule(long packed) {
+        mPacked = packed;
+    }
     
+    /**
+     * @param id
+     * @param days bitmask, bit 0 for Sunday through bit 6 for Saturday
+     * @param startHour
+     * @param startMinute
+     * @param volume
+     * @param volumeType
+     * @param vibrate
+     * @param active
+     */
+    public Schedule(int id, byte days, int startHour, int startMinute, 
+                    int volume, int volumeType, boolean vibrate, boolean active) {
+        this(pack(id, days, startHour, startMinute, volume, volumeType, vibrate, active));
+    }
+
     /**
      * @param id
      * @param day0
@@ -46,224 +74,245 @@ public class Schedule {
      * @param day4
      * @param day5
      * @param day6
-     * @param endTime
-     * @param startTime
-     * @param vibrate
+     * @param startHour
+     * @param startMinute
      * @param volume
+     * @param volumeType
+     * @param vibrate
+     * @param active
      */
     public Schedule(int id, boolean day0, boolean day1, boolean day2, boolean day3, boolean day4, boolean day5,
                     boolean day6, int startHour, int startMinute, 
                     int volume, int volumeType, boolean vibrate, boolean active) {
-        this.id = id;
-        this.mDay0 = day0;
-        this.mDay1 = day1;
-        this.mDay2 = day2;
-        this.mDay3 = day3;
-        this.mDay4 = day4;
-        this.mDay5 = day5;
-        this.mDay6 = day6;
-        this.mStartHour = startHour;
-        this.mStartMinute = startMinute;
-        this.mVolume = volume;
-        this.mVolumeType = volumeType;
-        this.mVibrate = vibrate;
-        this.mActive = active;
+        this(id, packDays(day0, day1, day2, day3, day4, day5, day6), 
+             startHour, startMinute, volume, volumeType, vibrate, active);
     }
 
     /**
-     * @return the id
+     * @param packed schedule as packed by {@link #pack()}
+     * @return Schedule
      */
-    public int getId() {
-        return id;
+    public static Schedule unpack(long packed) {
+        return new Schedule(packed);
     }
 
     /**
-     * @param id the id to set
+     * @return the whole schedule in one long
      */
-    public void setId(int id) {
-        this.id = id;
+    public long pack() {
+        return mPacked;
     }
 
     /**
-     * @return the mDay0
+     * @param id
+     * @param days
+     * @param startHour
+     * @param startMinute
+     * @param volume
+     * @param volumeType
+     * @param vibrate
+     * @param active
+     * @return the schedule in one long, without making a Schedule
      */
-    public boolean isDay0() {
-        return mDay0;
+    public static long pack(int id, byte days, int startHour, int startMinute, 
+                            int volume, int volumeType, boolean vibrate, boolean active) {
+        return ((long) id << PACKED_ID_SHIFT)
+               | ((active ? 1L : 0L) << PACKED_ACTIVE_SHIFT)
+               | ((vibrate ? 1L : 0L) << PACKED_VIBRATE_SHIFT)
+               | ((long) (volume & 0xff) << PACKED_VOLUME_SHIFT)
+               | ((long) (volumeType & 0x7) << PACKED_TYPE_SHIFT)
+               | ((long) (days & 0x7f) << PACKED_DAYS_SHIFT)
+               | ((startHour * 60 + startMinute) & 0x7ff);
     }
 
     /**
-     * @param mDay0 the mDay0 to set
+     * @param day0
+     * @param day1
+     * @param day2
+     * @param day3
+     * @param day4
+     * @param day5
+     * @param day6
+     * @return days bitmask
      */
-    public void setDay0(boolean day0) {
-        this.mDay0 = day0;
+    public static byte packDays(boolean day0, boolean day1, boolean day2, boolean day3, 
+                                boolean day4, boolean day5, boolean day6) {
+        return (byte) ((day0 ? 1 : 0) | (day1 ? 2 : 0) | (day2 ? 4 : 0) | (day3 ? 8 : 0) 
+                       | (day4 ? 16 : 0) | (day5 ? 32 : 0) | (day6 ? 64 : 0));
     }
 
-    /**
-     * @return the day1
+    /*
+     * fields of a packed schedule
      */
-    public boolean isDay1() {
-        return mDay1;
+    
+    public static int getId(long packed) {
+        return (int) (packed >>> PACKED_ID_SHIFT);
     }
 
-    /**
-     * @param day1 the day1 to set
-     */
-    public void setDay1(boolean day1) {
-        this.mDay1 = day1;
+    public static byte getDays(long packed) {
+        return (byte) ((packed >>> PACKED_DAYS_SHIFT) & 0x7f);
     }
 
-    /**
-     * @return the day2
-     */
-    public boolean isDay2() {
-        return mDay2;
+    public static boolean isDay(long packed, int day) {
+        return day >= 0 && day < 7 && ((packed >>> (PACKED_DAYS_SHIFT + day)) & 1) != 0;
     }
 
-    /**
-     * @param day2 the day2 to set
-     */
-    public void setDay2(boolean day2) {
-        this.mDay2 = day2;
+    public static int getMinuteOfDay(long packed) {
+        return (int) (packed & 0x7ff);
     }
 
-    /**
-     * @return the day3
-     */
-    public boolean isDay3() {
-        return mDay3;
+    public static int getVolume(long packed) {
+        return (int) ((packed >>> PACKED_VOLUME_SHIFT) & 0xff);
     }
 
-    /**
-     * @param day3 the day3 to set
-     */
-    public void setDay3(boolean day3) {
-        this.mDay3 = day3;
+    public static int getVolumeType(long packed) {
+        return (int) ((packed >>> PACKED_TYPE_SHIFT) & 0x7);
+    }
+
+    public static boolean isVibrate(long packed) {
+        return ((packed >>> PACKED_VIBRATE_SHIFT) & 1) != 0;
+    }
+
+    public static boolean isActive(long packed) {
+        return ((packed >>> PACKED_ACTIVE_SHIFT) & 1) != 0;
     }
 
     /**
-     * @return the day4
-     */
-    public boolean isDay4() {
-        return mDay4;
+     * Same value the db keeps in its sort key column: schedules set for days
+     * earlier in the week come first, then by time of day
+     * 
+     * @param packed
+     * @return the sort key
+     */
+    public static int getSortKey(long packed) {
+        int missingDays = 0;
+        for (int day = 0; day < 7; day++) {
+            if (!isDay(packed, day)) {
+                missingDays |= (1 << (6 - day));
+            }
+        }
+        
+        return missingDays * 1440 + getMinuteOfDay(packed);
     }
 
     /**
-     * @param day4 the day4 to set
+     * @return the id
      */
-    public void setDay4(boolean day4) {
-        this.mDay4 = day4;
+    public int getId() {
+        return getId(mPacked);
     }
 
     /**
-     * @return the day5
+     * @return the day0
      */
-    public boolean isDay5() {
-        return mDay5;
+    public boolean isDay0() {
+        return isDay(0);
     }
 
     /**
-     * @param day5 the day5 to set
+     * @return the day1
      */
-    public void setDay5(boolean day5) {
-        this.mDay5 = day5;
+    public boolean isDay1() {
+        return isDay(1);
     }
 
     /**
-     * @return the day6
+     * @return the day2
      */
-    public boolean isDay6() {
-        return mDay6;
+    public boolean isDay2() {
+        return isDay(2);
     }
 
     /**
-     * @param day6 the day6 to set
+     * @return the day3
      */
-    public void setDay6(boolean day6) {
-        this.mDay6 = day6;
+    public boolean isDay3() {
+        return isDay(3);
     }
 
     /**
-     * @return the startHour
+     * @return the day4
      */
-    public int getStartHour() {
-        return mStartHour;
+    public boolean isDay4() {
+        return isDay(4);
     }
 
     /**
-     * @param startHour the startHour to set
+     * @return the day5
      */
-    public void setStartHour(int startHour) {
-        this.mStartHour = startHour;
+    public boolean isDay5() {
+        return isDay(5);
     }
 
     /**
-     * @return the startMinute
+     * @return the day6
      */
-    public int getStartMinute() {
-        return mStartMinute;
+    public boolean isDay6() {
+        return isDay(6);
     }
 
     /**
-     * @param startMinute the startMinute to set
+     * @param day 0 for Sunday through 6 for Saturday
+     * @return whether the schedule is set for that day
      */
-    public void setStartMinute(int startMinute) {
-        this.mStartMinute = startMinute;
+    public boolean isDay(int day) {
+        return isDay(mPacked, day);
     }
 
     /**
-     * @return the volume
+     * @return the sort key, see {@link #getSortKey(long)}
      */
-    public int getVolume() {
-        return mVolume;
+    public int getSortKey() {
+        return getSortKey(mPacked);
     }
 
     /**
-     * @param volume the volume to set
+     * @return the days bitmask, bit 0 for Sunday through bit 6 for Saturday
      */
-    public void setVolume(int volume) {
-        this.mVolume = volume;
+    public byte getDays() {
+        return getDays(mPacked);
     }
 
     /**
-     * @return the volumeType
+     * @return the startHour
      */
-    public int getVolumeType() {
-        return mVolumeType;
+    public int getStartHour() {
+        return getMinuteOfDay(mPacked) / 60;
     }
 
     /**
-     * @param volumeType the volumeType to set
+     * @return the startMinute
      */
-    public void setVolumeType(int volumeType) {
-        this.mVolumeType = volumeType;
+    public int getStartMinute() {
+        return getMinuteOfDay(mPacked) % 60;
     }
 
     /**
-     * @return the vibrate
+     * @return the volume
      */
-    public boolean isVibrate() {
-        return mVibrate;
+    public int getVolume() {
+        return getVolume(mPacked);
     }
 
     /**
-     * @param vibrate the vibrate to set
+     * @return the volumeType
      */
-    public void setVibrate(boolean vibrate) {
-        this.mVibrate = vibrate;
+    public int getVolumeType() {
+        return getVolumeType(mPacked);
     }
 
     /**
-     * @param mActive the mActive to set
+     * @return the vibrate
      */
-    public void setActive(boolean mActive) {
-        this.mActive = mActive;
+    public boolean isVibrate() {
+        return isVibrate(mPacked);
     }
     
     /**
      * @return the mActive
      */
     public boolean isActive() {
-        return mActive;
+        return isActive(mPacked);
     }
     
     /**
@@ -284,12 +333,20 @@ public class Schedule {
         
         if (o instanceof Schedule) {
             Schedule compare = (Schedule) o;
-            result = (this.id > 0 && this.id == compare.getId());
+            result = (this.getId() > 0 && (this.mPacked >>> PACKED_ID_SHIFT) == (compare.mPacked >>> PACKED_ID_SHIFT));
         }
         
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return getId();
+    }
+
     /**
      * Compares all fields except schedule_id
      * 
@@ -297,25 +354,7 @@ public class Schedule {
      * @return
      */
     public boolean equalsSansId(Schedule s) {
-        boolean result = false;
-        
-        result = (
-                this.isActive() == s.isActive() &&
-                this.isDay0() == s.isDay0() &&
-                this.isDay1() == s.isDay1() &&
-                this.isDay2() == s.isDay2() &&
-                this.isDay3() == s.isDay3() &&
-                this.isDay4() == s.isDay4() &&
-                this.isDay5() == s.isDay5() &&
-                this.isDay6() == s.isDay6() &&
-                this.isVibrate() == s.isVibrate() &&
-                this.getStartHour() == s.getStartHour() &&
-                this.getStartMinute() == s.getStartMinute() &&
-                this.getVolume() == s.getVolume() &&
-                this.getVolumeType() == s.getVolumeType()
-                );
-    
-        return result;
+        return ((this.mPacked ^ s.mPacked) & PACKED_FIELDS_MASK) == 0;
     }
 
 }
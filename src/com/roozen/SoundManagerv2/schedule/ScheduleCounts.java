@@ -0,0 +1,82 @@
+/**
+ * Copyright 2009 Mike Partridge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.roozen.SoundManagerv2.schedule;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.roozen.SoundManagerv2.provider.ScheduleProvider;
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+
+/**
+ * Number of active schedules per stream, shared by the settings screens;
+ * loaded with one grouped query and kept until the ScheduleProvider
+ * moves to a new generation
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleCounts {
+
+    //indexed by stream type, null until loaded
+    private static int[] sActiveCounts;
+    private static long sGeneration;
+
+    /**
+     * @param context
+     * @param volumeType
+     * @return number of active schedules for the stream
+     */
+    public static synchronized int getActiveCount(Context context, int volumeType) {
+        long generation = ScheduleProvider.getGeneration(context);
+
+        if (sActiveCounts == null || sGeneration != generation) {
+            sActiveCounts = load(context.getContentResolver());
+            sGeneration = generation;
+        }
+
+        if (volumeType < 0 || volumeType >= sActiveCounts.length) {
+            return 0;
+        }
+
+        return sActiveCounts[volumeType];
+    }
+
+    private static int[] load(ContentResolver cr) {
+        int[] counts = new int[ScheduleTimeline.STREAM_COUNT];
+
+        Cursor c = cr.query(ScheduleProvider.COUNTS_URI, null, null, null, null);
+
+        if (c != null) {
+            if (c.moveToFirst()) {
+                int typeIndex = c.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_TYPE);
+                int countIndex = c.getColumnIndex(ScheduleProvider.ACTIVE_COUNT);
+
+                do {
+                    int type = c.getInt(typeIndex);
+                    if (type >= 0 && type < counts.length) {
+                        counts[type] = c.getInt(countIndex);
+                    }
+                } while (c.moveToNext());
+            }
+
+            c.close();
+        }
+
+        return counts;
+    }
+
+}
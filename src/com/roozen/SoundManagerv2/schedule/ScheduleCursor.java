@@ -0,0 +1,121 @@
+/**
+ * Copyright 2009 Mike Partridge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.roozen.SoundManagerv2.schedule;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+
+/**
+ * Cursor over schedule rows, as returned by the ScheduleProvider's row,
+ * type and active URIs with their default columns. Column indices are
+ * looked up once, when wrapping, so reading a row is only the getters.
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleCursor extends CursorWrapper {
+
+    private final int mIdIndex;
+    private final int mTypeIndex;
+    private final int mDaysIndex;
+    private final int mStartHourIndex;
+    private final int mStartMinuteIndex;
+    private final int mVolumeIndex;
+    private final int mVibrateIndex;
+    private final int mActiveIndex;
+
+    /**
+     * @param cursor with all of the schedule columns
+     * @throws IllegalArgumentException if one of them is missing
+     */
+    public ScheduleCursor(Cursor cursor) {
+        super(cursor);
+
+        mIdIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_ID);
+        mTypeIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_TYPE);
+        mDaysIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAYS);
+        mStartHourIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_START_HOUR);
+        mStartMinuteIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE);
+        mVolumeIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_VOLUME);
+        mVibrateIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_VIBRATE);
+        mActiveIndex = cursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_ACTIVE);
+    }
+
+    public int getScheduleId() {
+        return getInt(mIdIndex);
+    }
+
+    public int getVolumeType() {
+        return getInt(mTypeIndex);
+    }
+
+    /**
+     * @return days bitmask, bit 0 being Sunday
+     */
+    public byte getDays() {
+        return (byte) getInt(mDaysIndex);
+    }
+
+    public int getStartHour() {
+        return getInt(mStartHourIndex);
+    }
+
+    public int getStartMinute() {
+        return getInt(mStartMinuteIndex);
+    }
+
+    public int getVolume() {
+        return getInt(mVolumeIndex);
+    }
+
+    public boolean isVibrate() {
+        return getInt(mVibrateIndex) > 0;
+    }
+
+    public boolean isActive() {
+        return getInt(mActiveIndex) > 0;
+    }
+
+    /**
+     * @return the schedule in the current row, packed, without making a Schedule of it
+     */
+    public long getPacked() {
+        return Schedule.pack(getScheduleId(),
+                             getDays(),
+                             getStartHour(),
+                             getStartMinute(),
+                             getVolume(),
+                             getVolumeType(),
+                             isVibrate(),
+                             isActive());
+    }
+
+    /**
+     * @return the schedule in the current row
+     */
+    public Schedule toSchedule() {
+        return new Schedule(getScheduleId(),
+                            getDays(),
+                            getStartHour(),
+                            getStartMinute(),
+                            getVolume(),
+                            getVolumeType(),
+                            isVibrate(),
+                            isActive());
+    }
+
+}
@@ -19,7 +19,6 @@ import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
@@ -114,7 +113,7 @@ public class ScheduleEdit extends Activity {
         AudioManager audio = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         mVolume.setMax(audio.getStreamMaxVolume(mVolumeType));
         
-        mClock24hour = Util.is24HourClock(this.getContentResolver());
+        mClock24hour = TimeLabels.is24HourClock(this);
         mStartTime.setIs24HourView(mClock24hour);
         
         TextView vibrateLabel = (TextView) findViewById(R.id.vibrateLabel);
@@ -179,24 +178,25 @@ public class ScheduleEdit extends Activity {
         if (mScheduleId != null) {
             
             Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, mScheduleId.toString());
-            Cursor scheduleCursor = managedQuery(schedulesUri, null, null, null, null);
+            ScheduleCursor scheduleCursor = new ScheduleCursor(managedQuery(schedulesUri, null, null, null, null));
 
             if (scheduleCursor.moveToFirst()) {
             
-                mDay0.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY0)) > 0);
-                mDay1.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY1)) > 0);
-                mDay2.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY2)) > 0);
-                mDay3.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY3)) > 0);
-                mDay4.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY4)) > 0);
-                mDay5.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY5)) > 0);
-                mDay6.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY6)) > 0);
+                int days = scheduleCursor.getDays();
+                mDay0.setChecked((days & 1) != 0);
+                mDay1.setChecked((days & 2) != 0);
+                mDay2.setChecked((days & 4) != 0);
+                mDay3.setChecked((days & 8) != 0);
+                mDay4.setChecked((days & 16) != 0);
+                mDay5.setChecked((days & 32) != 0);
+                mDay6.setChecked((days & 64) != 0);
                 
-                mStartTime.setCurrentHour(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_START_HOUR)));
-                mStartTime.setCurrentMinute(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE)));
+                mStartTime.setCurrentHour(scheduleCursor.getStartHour());
+                mStartTime.setCurrentMinute(scheduleCursor.getStartMinute());
 
-                mVolume.setProgress(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_VOLUME)));
-                mVibrate.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_VIBRATE)) > 0);
-                mActive.setChecked(scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_ACTIVE)) > 0);
+                mVolume.setProgress(scheduleCursor.getVolume());
+                mVibrate.setChecked(scheduleCursor.isVibrate());
+                mActive.setChecked(scheduleCursor.isActive());
                 
                 //store values for future modification check
                 mSchedule = new Schedule(-1,
@@ -248,18 +248,20 @@ public class ScheduleEdit extends Activity {
 
         if (mScheduleId == null ||
             mSchedule == null ||
-            mDay0.isChecked() != mSchedule.isDay0() || 
-            mDay1.isChecked() != mSchedule.isDay1() ||
-            mDay2.isChecked() != mSchedule.isDay2() || 
-            mDay3.isChecked() != mSchedule.isDay3() ||
-            mDay4.isChecked() != mSchedule.isDay4() || 
-            mDay5.isChecked() != mSchedule.isDay5() ||
-            mDay6.isChecked() != mSchedule.isDay6() || 
-            mStartTime.getCurrentHour() != mSchedule.getStartHour() ||
-            mStartTime.getCurrentMinute() != mSchedule.getStartMinute() ||
-            mVolume.getProgress() != mSchedule.getVolume() || 
-            mVibrate.isChecked() != mSchedule.isVibrate() ||
-            mActive.isChecked() != mSchedule.isActive()
+            !mSchedule.equalsSansId(new Schedule(-1,
+                                                 mDay0.isChecked(),
+                                                 mDay1.isChecked(),
+                                                 mDay2.isChecked(),
+                                                 mDay3.isChecked(),
+                                                 mDay4.isChecked(),
+                                                 mDay5.isChecked(),
+                                                 mDay6.isChecked(),
+                                                 mStartTime.getCurrentHour(),
+                                                 mStartTime.getCurrentMinute(),
+                                                 mVolume.getProgress(),
+                                                 mVolumeType,
+                                                 mVibrate.isChecked(),
+                                                 mActive.isChecked()))
             ) {
             result = true;
         }
@@ -324,13 +326,10 @@ public class ScheduleEdit extends Activity {
         
         ContentValues values = new ContentValues();
 
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY0, mDay0.isChecked() ? "1" : "0");
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY1, mDay1.isChecked() ? "1" : "0");
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY2, mDay2.isChecked() ? "1" : "0");
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY3, mDay3.isChecked() ? "1" : "0");
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY4, mDay4.isChecked() ? "1" : "0");
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY5, mDay5.isChecked() ? "1" : "0");
-        values.put(SQLiteDatabaseHelper.SCHEDULE_DAY6, mDay6.isChecked() ? "1" : "0");
+        values.put(SQLiteDatabaseHelper.SCHEDULE_DAYS, Schedule.packDays(mDay0.isChecked(), mDay1.isChecked(), 
+                                                                  mDay2.isChecked(), mDay3.isChecked(), 
+                                                                  mDay4.isChecked(), mDay5.isChecked(), 
+                                                                  mDay6.isChecked()));
         
         values.put(SQLiteDatabaseHelper.SCHEDULE_START_HOUR, mStartTime.getCurrentHour());
         values.put(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE, mStartTime.getCurrentMinute());
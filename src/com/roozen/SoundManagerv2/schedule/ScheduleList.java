@@ -15,32 +15,34 @@
  */
 package com.roozen.SoundManagerv2.schedule;
 
-import java.util.Calendar;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.util.Arrays;
 
-import android.app.AlarmManager;
 import android.app.ListActivity;
-import android.app.PendingIntent;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.ContextMenu;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.widget.AbsListView;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 
 import com.roozen.SoundManagerv2.R;
 import com.roozen.SoundManagerv2.provider.ScheduleProvider;
-import com.roozen.SoundManagerv2.receivers.SoundTimer;
+import com.roozen.SoundManagerv2.services.BootupService;
+import com.roozen.SoundManagerv2.services.ChangeVolume;
 import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
 
 /**
@@ -53,9 +55,33 @@ public class ScheduleList extends ListActivity {
     private static final int ACTIVITY_EDIT   = 1;
     
     public static final String VOLUME_TYPE = "VOLUME_TYPE";
+    
+    //schedules read per page; a couple of screens' worth
+    private static final int PAGE_SIZE = 40;
+    
     private int mVolumeType;
     
     private TextView mListHeader;    
+    
+    private ScheduleListAdapter mAdapter;
+    
+    //generation of the schedules the list was last filled from
+    private long mFilledGeneration = -1;
+    
+    //packed schedules the list has loaded, in list order
+    private long[] mShown = new long[0];
+    
+    //the last page came back full, so there may be more after it
+    private boolean mHasMore;
+    
+    //load running in the background, null when there's none
+    private LoadSchedulesTask mLoadTask;
+    
+    //refills the list when schedules of this type change, wherever they were changed from
+    private ContentObserver mScheduleObserver;
+    
+    //clock format as of the last pause, to tell on resume if the start times need redoing
+    private boolean mPausedClock24Hour;
 
 	/* (non-Javadoc)
 	 * @see android.app.Activity#onCreate(android.os.Bundle)
@@ -98,65 +124,261 @@ public class ScheduleList extends ListActivity {
                 break;
         }
         
+        /*
+         * the list is drawn empty right away and filled once the schedules are loaded
+         */
+        mAdapter = new ScheduleListAdapter(this);
+        setListAdapter(mAdapter);
+        mPausedClock24Hour = TimeLabels.is24HourClock(this);
+        
         fillData();
         
+        mScheduleObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                fillData();
+            }
+        };
+        getContentResolver().registerContentObserver(ScheduleProvider.getTypeUri(mVolumeType), 
+                                                     false, mScheduleObserver);
+        
+        /*
+         * read the next page while there's still half a page to scroll through
+         */
+        getListView().setOnScrollListener(new OnScrollListener() {
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+            
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+        });
+        
         registerForContextMenu(getListView());
 	}
+    
+    /* (non-Javadoc)
+     * @see android.app.Activity#onDestroy()
+     */
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mScheduleObserver);
+        
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
+        }
+        mAdapter.close();
+        
+        super.onDestroy();
+    }
 
 	/**
-	 * retrieves schedules from the db and populates the list
+	 * retrieves schedules from the db in the background, as many as the list
+	 * has loaded and at least a page; the list is refilled once they're in, 
+	 * and only if they differ from what it shows
 	 */
 	private void fillData() {
 	    
 	    /*
-	     * get all schedules rows for this type
+	     * nothing to do if the schedules haven't changed since the last fill,
+	     * or they're already being loaded
 	     */
-	    Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, "type/"+ScheduleProvider.getMimeType(mVolumeType));
-	    Cursor scheduleCursor = managedQuery(schedulesUri, null, null, null, null);
+	    long generation = ScheduleProvider.getGeneration(this);
+	    if (generation >= 0 && generation == mFilledGeneration) {
+	        return;
+	    }
 	    
-	    ScheduleListAdapter sla = new ScheduleListAdapter(this);
+	    if (mLoadTask != null) {
+	        if (!mLoadTask.isNextPage() && generation >= 0 && generation == mLoadTask.mGeneration) {
+	            return;
+	        }
+	        mLoadTask.cancel(false);
+	    }
 	    
-	    if (scheduleCursor.moveToFirst()) {
-            
-            int idIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_ID);
-            int day0Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY0);
-            int day1Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY1);
-            int day2Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY2);
-            int day3Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY3);
-            int day4Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY4);
-            int day5Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY5);
-            int day6Index = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_DAY6);
-            int startHourIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_START_HOUR);
-            int startMinuteIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE);
-            int volumeIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_VOLUME);
-            int vibrateIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_VIBRATE);
-            int activeIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_ACTIVE);
-            
-	        do {
-	            
-	            Schedule s = new Schedule(scheduleCursor.getInt(idIndex),
-                             (scheduleCursor.getInt(day0Index) > 0),
-                             (scheduleCursor.getInt(day1Index) > 0),
-                             (scheduleCursor.getInt(day2Index) > 0),
-                             (scheduleCursor.getInt(day3Index) > 0),
-                             (scheduleCursor.getInt(day4Index) > 0),
-                             (scheduleCursor.getInt(day5Index) > 0),
-                             (scheduleCursor.getInt(day6Index) > 0),
-                             scheduleCursor.getInt(startHourIndex),
-                             scheduleCursor.getInt(startMinuteIndex),
-                             scheduleCursor.getInt(volumeIndex),
-                             mVolumeType,
-                             (scheduleCursor.getInt(vibrateIndex) > 0),
-                             (scheduleCursor.getInt(activeIndex) > 0)
-                             );
+	    mLoadTask = new LoadSchedulesTask(generation, mShown, -1, Math.max(PAGE_SIZE, mShown.length));
+	    mLoadTask.execute();
+	}
+	
+	/**
+	 * retrieves the page after the last loaded schedule in the background,
+	 * unless there's nothing more or a load is already running
+	 */
+	private void loadNextPage() {
+	    if (mLoadTask != null || !mHasMore || mShown.length == 0) {
+	        return;
+	    }
+	    
+	    mLoadTask = new LoadSchedulesTask(mFilledGeneration, mShown, mShown[mShown.length - 1], PAGE_SIZE);
+	    mLoadTask.execute();
+	}
+	
+	/**
+	 * Queries a page of the schedules of the list's type off the main thread,
+	 * either the first rows or those after a given schedule. The first rows are
+	 * compared to what the list shows, so an unchanged list is left alone and 
+	 * one with only changed schedules rebinds only their rows.
+	 */
+	private class LoadSchedulesTask extends AsyncTask<Void, Void, Cursor> {
+	    
+	    private final long mGeneration;
+	    private final long[] mShownBefore;
+	    private final long mAfter;
+	    private final int mLimit;
+	    
+	    //set in the background, read once the load is done
+	    private long[] mLoaded;
+	    private int[] mChanged;
+	    
+	    //the loaded cursor until onPostExecute takes it; closed if the task is cancelled first
+	    private Cursor mCursor;
+	    
+	    /**
+	     * @param generation
+	     * @param shown packed schedules the list had loaded
+	     * @param after packed schedule to read the page after, -1 for the first rows
+	     * @param limit
+	     */
+	    LoadSchedulesTask(long generation, long[] shown, long after, int limit) {
+	        mGeneration = generation;
+	        mShownBefore = shown;
+	        mAfter = after;
+	        mLimit = limit;
+	    }
+	    
+	    boolean isNextPage() {
+	        return mAfter >= 0;
+	    }
+	    
+	    /*
+	     * hands the loaded cursor to whoever gets here first: onPostExecute, 
+	     * onCancelled, or the background thread finding itself cancelled
+	     */
+	    private synchronized Cursor takeCursor() {
+	        Cursor c = mCursor;
+	        mCursor = null;
+	        return c;
+	    }
+	    
+	    /* (non-Javadoc)
+	     * @see android.os.AsyncTask#doInBackground(Params[])
+	     */
+	    @Override
+	    protected Cursor doInBackground(Void... params) {
+	        Uri pageUri = ScheduleProvider.getTypeUri(mVolumeType, mAfter, mLimit);
+	        Cursor c = getContentResolver().query(pageUri, null, null, null, null);
+	        if (c == null) {
+	            return null;
+	        }
+	        
+	        /*
+	         * the packed rows are all that's kept of the page; the adapter
+	         * reads the cursor itself as rows are bound
+	         */
+	        ScheduleCursor scheduleCursor = new ScheduleCursor(c);
+	        long[] loaded = new long[scheduleCursor.getCount()];
+	        for (int i = 0; scheduleCursor.moveToNext(); i++) {
+	            loaded[i] = scheduleCursor.getPacked();
+	        }
+	        mLoaded = loaded;
+	        
+	        if (!isNextPage() && Arrays.equals(loaded, mShownBefore)) {
+	            //the same schedules in the same order; nothing to publish
+	            c.close();
+	            return null;
+	        }
+	        
+	        if (!isNextPage()) {
+	            mChanged = ScheduleListAdapter.getChangedPositions(mShownBefore, loaded);
+	        }
+	        
+	        /*
+	         * a cancel can land before or after this; whichever side sees the
+	         * other closes the cursor
+	         */
+	        synchronized (this) {
+	            mCursor = c;
+	        }
+	        if (isCancelled()) {
+	            closeCursor();
+	            return null;
+	        }
+	        
+	        return c;
+	    }
+	    
+	    /* (non-Javadoc)
+	     * @see android.os.AsyncTask#onCancelled()
+	     */
+	    @Override
+	    protected void onCancelled() {
+	        //onPostExecute won't run, so nothing else would close it
+	        closeCursor();
+	    }
+	    
+	    private void closeCursor() {
+	        Cursor c = takeCursor();
+	        if (c != null) {
+	            c.close();
+	        }
+	    }
+	    
+	    /* (non-Javadoc)
+	     * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+	     */
+	    @Override
+	    protected void onPostExecute(Cursor c) {
+	        //API 8 passes a task cancelled once done a null result, leaving the cursor here
+	        Cursor taken = takeCursor();
+	        if (c == null && taken != null) {
+	            taken.close();
+	        }
+	        
+	        if (isCancelled() || mLoadTask != this) {
+	            //a newer load replaced this one
+	            if (c != null) {
+	                c.close();
+	            }
+	            return;
+	        }
+	        mLoadTask = null;
+	        
+	        if (!isNextPage()) {
+	            mFilledGeneration = mGeneration;
+	        }
 	        
-	            sla.addItem(s);
+	        if (c == null) {
+	            return;
+	        }
+	        mHasMore = mLoaded.length == mLimit;
+	        
+	        if (isNextPage() && mLoaded.length == 0) {
+	            c.close();
+	        }
+	        else if (isNextPage()) {
+	            long[] shown = new long[mShown.length + mLoaded.length];
+	            System.arraycopy(mShown, 0, shown, 0, mShown.length);
+	            System.arraycopy(mLoaded, 0, shown, mShown.length, mLoaded.length);
+	            mShown = shown;
+	            
+	            mAdapter.appendCursor(c);
+	            mAdapter.notifyDataSetChanged();
+	        }
+	        else {
+	            mShown = mLoaded;
 	            
-	        } while(scheduleCursor.moveToNext());
-	        	        
+	            mAdapter.changeCursor(c);
+	            if (mChanged == null) {
+	                mAdapter.notifyDataSetChanged();
+	            }
+	            else {
+	                rebindRows(mChanged);
+	            }
+	        }
 	    }
 	    
-	    setListAdapter(sla);
 	}
 	
 	/* (non-Javadoc)
@@ -201,18 +423,15 @@ public class ScheduleList extends ListActivity {
             Uri deleteUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(info.id));
             getContentResolver().delete(deleteUri, null, null);
             
-            cancelAlarm((int)info.id);
-            
-            fillData();
+            rearmAlarm();
             return true;
 		
 		case R.id.toggleSchedule:
-		    toggleSchedule(info.id);
-		    fillData();
+		    toggleSchedule((Schedule) mAdapter.getItem(info.position));
 		    return true;
 		    
 		case R.id.applySettings:
-		    registerAlarm((int)info.id);
+		    applySchedule((int)info.id);
 		    return true;
 		    
         }
@@ -256,6 +475,8 @@ public class ScheduleList extends ListActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        
+        mPausedClock24Hour = TimeLabels.is24HourClock(this);
     }
 
     /* (non-Javadoc)
@@ -266,6 +487,13 @@ public class ScheduleList extends ListActivity {
         super.onResume();
         
         fillData();
+        
+        //the rows only show the new clock format once they're bound again
+        boolean clock24Hour = TimeLabels.is24HourClock(this);
+        if (clock24Hour != mPausedClock24Hour) {
+            mPausedClock24Hour = clock24Hour;
+            mAdapter.notifyDataSetChanged();
+        }
     }
 
     /* (non-Javadoc)
@@ -290,96 +518,70 @@ public class ScheduleList extends ListActivity {
                 (requestCode == ACTIVITY_EDIT || requestCode == ACTIVITY_CREATE)) {
             
             int scheduleId = data.getIntExtra(SQLiteDatabaseHelper.SCHEDULE_ID, -1);
-            boolean active = data.getBooleanExtra(SQLiteDatabaseHelper.SCHEDULE_ACTIVE, false);
             
             if (scheduleId > 0) {
-                
-                if (active) {
-                    registerAlarm(scheduleId);
-                }
-                else {
-                    cancelAlarm(scheduleId);
-                }
-                
+                rearmAlarm();
             }
             
         }
-        
-        fillData();
     }
     
-    private void registerAlarm(int scheduleId) {
-        
-        Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId));
-        Cursor scheduleCursor = managedQuery(schedulesUri, null, null, null, null);
+    /**
+     * rebinds the rows at the given positions that are on screen; the rest
+     * are bound when they scroll into view
+     * 
+     * @param positions
+     */
+    private void rebindRows(int[] positions) {
+        ListView listView = getListView();
+        int first = listView.getFirstVisiblePosition();
+        int last = listView.getLastVisiblePosition();
         
-        if (scheduleCursor.moveToFirst()) {
-            
-            AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);                
-            int startHour = scheduleCursor.getInt(scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_START_HOUR));
-            int startMinute = scheduleCursor.getInt(scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE));
-            
-            Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault());
-            cal.set(Calendar.HOUR_OF_DAY, startHour);
-            cal.set(Calendar.MINUTE, startMinute);
-            cal.set(Calendar.SECOND, 0);
-            cal.set(Calendar.MILLISECOND, 200);
-            
-            Intent scheduleIntent = new Intent(this, SoundTimer.class);
-            scheduleIntent.setData(schedulesUri);
-            PendingIntent pi = PendingIntent.getBroadcast(this, 0, scheduleIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-            
-            //repeat the alarm every day; the receiver will check day of week
-            alarmManager.setRepeating(AlarmManager.RTC_WAKEUP, cal.getTimeInMillis(), AlarmManager.INTERVAL_DAY, pi);
-                            
+        for (int position : positions) {
+            if (position >= first && position <= last) {
+                View row = listView.getChildAt(position - first);
+                if (row != null) {
+                    mAdapter.getView(position, row, listView);
+                }
+            }
         }
-        
     }
     
-    private void cancelAlarm(int scheduleId) {
-
-        AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);  
-        
-        Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId));
-        Intent scheduleIntent = new Intent(this, SoundTimer.class);
-        scheduleIntent.setData(schedulesUri);
-        PendingIntent pi = PendingIntent.getBroadcast(this, 0, scheduleIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-        
-        alarmManager.cancel(pi);
-        
+    /**
+     * the single alarm may now belong to a different transition; let the 
+     * BootupService work out which one
+     */
+    private void rearmAlarm() {
+        startService(new Intent(BootupService.ACTION_REARM, null, this, BootupService.class));
+    }
+    
+    /**
+     * apply a schedule's settings right away
+     * 
+     * @param scheduleId
+     */
+    private void applySchedule(int scheduleId) {
+        Intent i = new Intent(this, ChangeVolume.class);
+        i.setData(Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId)));
+        startService(i);
     }
 	
-    private void toggleSchedule(long scheduleId) {
-        
-        boolean active = true;
-        
-        /*
-         * retrieve the active state for this schedule
-         */
-        {
-            Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId));
-            Cursor scheduleCursor = managedQuery(schedulesUri, null, null, null, null);
-
-            if (scheduleCursor.moveToFirst()) {
-                active = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_ACTIVE)) > 0);
-            }
-        }
+    /**
+     * flips the schedule's active state from the one the list shows
+     * 
+     * @param schedule
+     */
+    private void toggleSchedule(Schedule schedule) {
         
         ContentValues values = new ContentValues();
 
         //flip it
-        values.put(SQLiteDatabaseHelper.SCHEDULE_ACTIVE, active ? "0" : "1");
+        values.put(SQLiteDatabaseHelper.SCHEDULE_ACTIVE, schedule.isActive() ? "0" : "1");
         
-        Uri updateUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId));
+        Uri updateUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(schedule.getId()));
         getContentResolver().update(updateUri, values, null, null);
         
-        //set/unset the alarm
-        if (active) {
-            cancelAlarm((int)scheduleId);
-        }
-        else {
-            registerAlarm((int)scheduleId);
-        }
+        rearmAlarm();
         
     }
     
@@ -18,6 +18,8 @@ package com.roozen.SoundManagerv2.schedule;
 import java.util.ArrayList;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -26,12 +28,21 @@ import android.widget.BaseAdapter;
  * Based on the tutorial from anddev.org at
  * http://www.anddev.org/iconified_textlist_-_the_making_of-t97.html
  * 
+ * Backed by the cursors of the pages loaded so far; a row only becomes a 
+ * Schedule when it's bound or asked for
+ * 
  * @author Mike Partridge
  */
 public class ScheduleListAdapter extends BaseAdapter {
 
     private Context mContext;
-    private ArrayList<Schedule> mItems = new ArrayList<Schedule>();
+    
+    //cursors of the loaded pages, in list order
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+    
+    //the pages read as one, null when there are none
+    private ScheduleCursor mCursor;
+    private int mCount;
     
     /**
      * @param context
@@ -44,35 +55,83 @@ public class ScheduleListAdapter extends BaseAdapter {
      * @see android.widget.Adapter#getCount()
      */
     public int getCount() {
-        return mItems.size();
+        return mCount;
     }
 
     /* (non-Javadoc)
      * @see android.widget.Adapter#getItem(int)
      */
     public Object getItem(int position) {
-        return mItems.get(position);
+        moveTo(position);
+        return mCursor.toSchedule();
     }
 
     /* (non-Javadoc)
      * @see android.widget.Adapter#getItemId(int)
      */
     public long getItemId(int position) {
-        return mItems.get(position).getId();
+        moveTo(position);
+        return mCursor.getScheduleId();
     }
 
     /**
-     * @param s
+     * Replaces all of the rows with those of the cursor; the old cursors are closed
+     * 
+     * @param c
      */
-    public void addItem(Schedule s) {
-        mItems.add(s);
+    public void changeCursor(Cursor c) {
+        closePages();
+        mPages.add(c);
+        mergePages();
     }
     
     /**
-     * @param sl
+     * Adds the cursor's rows after those already loaded
+     * 
+     * @param c
      */
-    public void setItems(ArrayList<Schedule> sl) {
-        mItems = sl;
+    public void appendCursor(Cursor c) {
+        mPages.add(c);
+        mergePages();
+    }
+    
+    /**
+     * Closes the cursors and empties the adapter
+     */
+    public void close() {
+        closePages();
+        mCursor = null;
+        mCount = 0;
+    }
+    
+    /**
+     * Diffs two snapshots of the list's schedules by id
+     * 
+     * @param before packed schedules, in list order
+     * @param after packed schedules, in list order
+     * @return positions whose schedule changed, or null if schedules were added, removed or moved
+     */
+    public static int[] getChangedPositions(long[] before, long[] after) {
+        if (before.length != after.length) {
+            return null;
+        }
+        
+        int[] changed = new int[after.length];
+        int count = 0;
+        for (int i = 0; i < after.length; i++) {
+            if (Schedule.getId(before[i]) != Schedule.getId(after[i])) {
+                //not the same rows
+                return null;
+            }
+            
+            if (before[i] != after[i]) {
+                changed[count++] = i;
+            }
+        }
+        
+        int[] positions = new int[count];
+        System.arraycopy(changed, 0, positions, 0, count);
+        return positions;
     }
     
     /* (non-Javadoc)
@@ -80,13 +139,11 @@ public class ScheduleListAdapter extends BaseAdapter {
      */
     @Override
     public boolean isEnabled(int position) {
-        try {
-             return mItems.get(position).isEnabled();
+        if (position >= 0 && position < mCount) {
+            return true;
         }
-        catch (IndexOutOfBoundsException e){
-             return super.isEnabled(position);
-        }
-   } 
+        return super.isEnabled(position);
+    } 
 
     /* (non-Javadoc)
      * @see android.widget.Adapter#getView(int, android.view.View, android.view.ViewGroup)
@@ -95,21 +152,52 @@ public class ScheduleListAdapter extends BaseAdapter {
 
         ScheduleView scheduleView;
         
-        Schedule schedule = mItems.get(position);
-        
         /*
-         * if the View already exists, set its values; otherwise give it the Schedule to pull them itself
+         * reuse the View the list hands back; it only updates what differs
          */
-        if (convertView != null &&
-                convertView instanceof ScheduleView) {
+        if (convertView instanceof ScheduleView) {
             scheduleView = (ScheduleView) convertView;
-            scheduleView.setFromSchedule(schedule);
         }
         else {
-            scheduleView = new ScheduleView(mContext, schedule);
+            scheduleView = ScheduleView.inflate(mContext, parent);
         }
         
+        /*
+         * straight from the cursor's row; getItem would make a Schedule of it
+         */
+        moveTo(position);
+        scheduleView.setFromPacked(mCursor.getPacked());
+        
         return scheduleView;
     }
+    
+    /*
+     * a MergeCursor shares the pages rather than copying them, so nothing is read here
+     */
+    private void mergePages() {
+        Cursor merged;
+        if (mPages.size() == 1) {
+            merged = mPages.get(0);
+        }
+        else {
+            merged = new MergeCursor(mPages.toArray(new Cursor[mPages.size()]));
+        }
+        
+        mCursor = new ScheduleCursor(merged);
+        mCount = mCursor.getCount();
+    }
+    
+    private void closePages() {
+        for (Cursor c : mPages) {
+            c.close();
+        }
+        mPages.clear();
+    }
+    
+    private void moveTo(int position) {
+        if (mCursor == null || !mCursor.moveToPosition(position)) {
+            throw new IndexOutOfBoundsException("No schedule at " + position);
+        }
+    }
 
 }
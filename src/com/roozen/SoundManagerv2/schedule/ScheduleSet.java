@@ -0,0 +1,151 @@
+/**
+ * Copyright 2009 Mike Partridge
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, 
+ * software distributed under the License is distributed 
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language 
+ * governing permissions and limitations under the License. 
+ */
+package com.roozen.SoundManagerv2.schedule;
+
+import java.util.Arrays;
+
+/**
+ * Set of schedules in packed form (see {@link Schedule#pack()}), kept in
+ * one sorted long[]; the id is in the upper bits, so that is id order.
+ * Lookups are a binary search and going through them all makes no
+ * objects. Not synchronized.
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleSet {
+
+    private long[] mPacked;
+    private int mSize;
+
+    public ScheduleSet() {
+        this(new long[0]);
+    }
+
+    /**
+     * @param packed schedules, packed; the set takes over the array
+     */
+    public ScheduleSet(long[] packed) {
+        Arrays.sort(packed);
+        mPacked = packed;
+        mSize = packed.length;
+    }
+
+    /**
+     * @return number of schedules
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param index 0 to size() - 1, in id order
+     * @return packed schedule
+     */
+    public long getPackedAt(int index) {
+        return mPacked[index];
+    }
+
+    /**
+     * @param id
+     * @return packed schedule, or -1 if there's no such schedule
+     */
+    public long get(int id) {
+        int index = indexOf(id);
+        return index >= 0 ? mPacked[index] : -1;
+    }
+
+    /**
+     * Adds the schedule, or replaces the one with the same id
+     * 
+     * @param packed
+     */
+    public void put(long packed) {
+        int index = indexOf(Schedule.getId(packed));
+
+        if (index >= 0) {
+            mPacked[index] = packed;
+            return;
+        }
+
+        index = -(index + 1);
+        if (mSize == mPacked.length) {
+            long[] grown = new long[mSize * 2 + 4];
+            System.arraycopy(mPacked, 0, grown, 0, mSize);
+            mPacked = grown;
+        }
+        System.arraycopy(mPacked, index, mPacked, index + 1, mSize - index);
+        mPacked[index] = packed;
+        mSize++;
+    }
+
+    /**
+     * @param id
+     */
+    public void remove(int id) {
+        int index = indexOf(id);
+
+        if (index >= 0) {
+            System.arraycopy(mPacked, index + 1, mPacked, index, mSize - index - 1);
+            mSize--;
+        }
+    }
+
+    /**
+     * @return a new set of just the active schedules
+     */
+    public ScheduleSet getActive() {
+        long[] active = new long[mSize];
+        int count = 0;
+
+        for (int i = 0; i < mSize; i++) {
+            if (Schedule.isActive(mPacked[i])) {
+                active[count++] = mPacked[i];
+            }
+        }
+
+        ScheduleSet set = new ScheduleSet();
+        set.mPacked = active;
+        set.mSize = count;
+        return set;
+    }
+
+    /**
+     * @param id
+     * @return index of the schedule, or -(insertion point + 1) if it isn't in the set
+     */
+    public int indexOf(int id) {
+        int low = 0;
+        int high = mSize - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = Schedule.getId(mPacked[mid]);
+
+            if (midId < id) {
+                low = mid + 1;
+            }
+            else if (midId > id) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+}
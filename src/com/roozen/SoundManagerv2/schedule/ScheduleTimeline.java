@@ -0,0 +1,313 @@
+/**
+ * Copyright 2009 Mike Partridge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.roozen.SoundManagerv2.schedule;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.util.Log;
+
+import com.roozen.SoundManagerv2.provider.ScheduleProvider;
+
+/**
+ * Compiled week of all active schedules. Every schedule becomes one
+ * transition per day it is set for, keyed by minute of the week
+ * (0 is midnight starting Sunday), and kept in sorted arrays both merged
+ * and per stream so lookups are a binary search.
+ *
+ * Immutable once compiled; {@link #getInstance(Context)} shares one copy
+ * until the ScheduleProvider moves to a new generation.
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleTimeline {
+
+    private static final String TAG = ScheduleTimeline.class.toString();
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    /*
+     * AudioManager stream types run from STREAM_VOICE_CALL (0) to STREAM_NOTIFICATION (5)
+     */
+    public static final int STREAM_COUNT = 6;
+
+    private static ScheduleTimeline sInstance;
+    private static long sGeneration;
+
+    //active schedules, packed
+    private final ScheduleSet mSchedules;
+
+    //transitions of all streams merged
+    private final int[] mMinutes;
+    private final int[] mScheduleIds;
+
+    //transitions of each stream
+    private final int[][] mStreamMinutes;
+    private final int[][] mStreamVolumes;
+    private final boolean[][] mStreamVibrate;
+
+    private ScheduleTimeline(ScheduleSet schedules, int[] minutes, int[] scheduleIds,
+                             int[][] streamMinutes, int[][] streamVolumes, boolean[][] streamVibrate) {
+        mSchedules = schedules;
+        mMinutes = minutes;
+        mScheduleIds = scheduleIds;
+        mStreamMinutes = streamMinutes;
+        mStreamVolumes = streamVolumes;
+        mStreamVibrate = streamVibrate;
+    }
+
+    /**
+     * Returns the shared timeline, compiling it from the active schedules
+     * in the db if it isn't loaded yet or the schedules changed since
+     *
+     * @param context
+     * @return ScheduleTimeline
+     */
+    public static synchronized ScheduleTimeline getInstance(Context context) {
+        //read before loading, so a change during the load still shows up next time
+        long generation = ScheduleProvider.getGeneration(context);
+
+        if (sInstance == null || sGeneration != generation) {
+            sInstance = load(context.getContentResolver());
+            sGeneration = generation;
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Reads all active schedules and compiles them
+     *
+     * @param cr
+     * @return ScheduleTimeline
+     */
+    public static ScheduleTimeline load(ContentResolver cr) {
+        long startedAt = System.nanoTime();
+
+        /*
+         * one long per schedule, rather than a cursor column per field
+         */
+        ScheduleSet schedules = new ScheduleSet(ScheduleProvider.getActivePacked(cr));
+
+        ScheduleTimeline timeline = compile(schedules);
+
+        Log.d(TAG, "Loaded " + schedules.size() + " schedules in " + (System.nanoTime() - startedAt) / 1000 + "us");
+
+        return timeline;
+    }
+
+    /**
+     * Compiles the given schedules without unpacking them; inactive ones are left out
+     *
+     * @param schedules
+     * @return ScheduleTimeline
+     */
+    public static ScheduleTimeline compile(ScheduleSet schedules) {
+
+        //the active ones, still in id order for lookups
+        ScheduleSet active = schedules.getActive();
+        int activeCount = active.size();
+
+        /*
+         * one transition per day each schedule is set for; minute of the week
+         * in the high bits so a plain sort orders by time, then id
+         */
+        long[] packed = new long[activeCount * 7];
+        int size = 0;
+        int[] streamSizes = new int[STREAM_COUNT];
+
+        for (int i = 0; i < activeCount; i++) {
+            long s = active.getPackedAt(i);
+            int minuteOfDay = Schedule.getMinuteOfDay(s);
+            int stream = Schedule.getVolumeType(s);
+
+            for (int day = 0; day < 7; day++) {
+                if (Schedule.isDay(s, day)) {
+                    long minute = day * MINUTES_PER_DAY + minuteOfDay;
+                    packed[size++] = (minute << 32) | i;
+
+                    if (isStream(stream)) {
+                        streamSizes[stream]++;
+                    }
+                }
+            }
+        }
+        Arrays.sort(packed, 0, size);
+
+        int[] minutes = new int[size];
+        int[] scheduleIds = new int[size];
+        int[][] streamMinutes = new int[STREAM_COUNT][];
+        int[][] streamVolumes = new int[STREAM_COUNT][];
+        boolean[][] streamVibrate = new boolean[STREAM_COUNT][];
+        for (int stream = 0; stream < STREAM_COUNT; stream++) {
+            streamMinutes[stream] = new int[streamSizes[stream]];
+            streamVolumes[stream] = new int[streamSizes[stream]];
+            streamVibrate[stream] = new boolean[streamSizes[stream]];
+            streamSizes[stream] = 0;
+        }
+
+        for (int i = 0; i < size; i++) {
+            int minute = (int) (packed[i] >>> 32);
+            long s = active.getPackedAt((int) packed[i]);
+
+            minutes[i] = minute;
+            scheduleIds[i] = Schedule.getId(s);
+
+            //already in order, so each stream's arrays come out sorted too
+            int stream = Schedule.getVolumeType(s);
+            if (isStream(stream)) {
+                int j = streamSizes[stream]++;
+                streamMinutes[stream][j] = minute;
+                streamVolumes[stream][j] = Schedule.getVolume(s);
+                streamVibrate[stream][j] = Schedule.isVibrate(s);
+            }
+        }
+
+        return new ScheduleTimeline(active, minutes, scheduleIds,
+                                    streamMinutes, streamVolumes, streamVibrate);
+    }
+
+    /**
+     * @param cal
+     * @return minute of the week for the calendar's time, 0 being midnight starting Sunday
+     */
+    public static int getMinuteOfWeek(Calendar cal) {
+        return (cal.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * MINUTES_PER_DAY
+               + cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
+    }
+
+    /**
+     * @return true if there are no transitions at all
+     */
+    public boolean isEmpty() {
+        return mMinutes.length == 0;
+    }
+
+    /**
+     * @param scheduleId
+     * @return the active schedule with that id, packed, or -1 if it isn't active
+     */
+    public long getSchedule(int scheduleId) {
+        return mSchedules.get(scheduleId);
+    }
+
+    /**
+     * Finds the first transition of any stream strictly after the given
+     * minute of the week, wrapping around to the start of the next week
+     *
+     * @param minuteOfWeek
+     * @return minute of the week of the next transition, or -1 if there are none
+     */
+    public int getNextTransition(int minuteOfWeek) {
+        if (isEmpty()) {
+            return -1;
+        }
+
+        int index = firstIndexAfter(mMinutes, minuteOfWeek);
+        if (index == mMinutes.length) {
+            index = 0;
+        }
+
+        return mMinutes[index];
+    }
+
+    /**
+     * @param minuteOfWeek
+     * @return ids of every schedule with a transition at the given minute of the week
+     */
+    public int[] getScheduleIds(int minuteOfWeek) {
+        int from = firstIndexAfter(mMinutes, minuteOfWeek - 1);
+        int to = firstIndexAfter(mMinutes, minuteOfWeek);
+
+        int[] ids = new int[to - from];
+        System.arraycopy(mScheduleIds, from, ids, 0, ids.length);
+
+        return ids;
+    }
+
+    /**
+     * @param stream
+     * @return true if any active schedule controls the stream
+     */
+    public boolean hasSchedules(int stream) {
+        return isStream(stream) && mStreamMinutes[stream].length > 0;
+    }
+
+    /**
+     * @param stream
+     * @param minuteOfWeek
+     * @return volume the schedules put the stream at, at that minute, or -1 if no schedule controls it
+     */
+    public int getVolume(int stream, int minuteOfWeek) {
+        int index = getStateIndex(stream, minuteOfWeek);
+
+        return index < 0 ? -1 : mStreamVolumes[stream][index];
+    }
+
+    /**
+     * @param stream
+     * @param minuteOfWeek
+     * @return vibrate setting the schedules give the stream at that minute; false if no schedule controls it
+     */
+    public boolean isVibrate(int stream, int minuteOfWeek) {
+        int index = getStateIndex(stream, minuteOfWeek);
+
+        return index >= 0 && mStreamVibrate[stream][index];
+    }
+
+    /*
+     * index of the last transition of the stream at or before the given minute;
+     * before the week's first transition, last week's final one is still in force
+     */
+    private int getStateIndex(int stream, int minuteOfWeek) {
+        if (!hasSchedules(stream)) {
+            return -1;
+        }
+
+        int[] minutes = mStreamMinutes[stream];
+        int index = firstIndexAfter(minutes, minuteOfWeek) - 1;
+
+        return index < 0 ? minutes.length - 1 : index;
+    }
+
+    private static boolean isStream(int stream) {
+        return stream >= 0 && stream < STREAM_COUNT;
+    }
+
+    /*
+     * binary search for the first index with a minute greater than the given one
+     */
+    private static int firstIndexAfter(int[] minutes, int minute) {
+        int low = 0;
+        int high = minutes.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (minutes[mid] <= minute) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+}
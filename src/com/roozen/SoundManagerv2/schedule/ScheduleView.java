@@ -16,310 +16,193 @@
 package com.roozen.SoundManagerv2.schedule;
 
 import android.content.Context;
+import android.content.res.ColorStateList;
 import android.graphics.Color;
 import android.media.AudioManager;
-import android.view.Gravity;
-import android.widget.LinearLayout;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.RelativeLayout;
 import android.widget.SeekBar;
-import android.widget.TableLayout;
-import android.widget.TableRow;
 import android.widget.TextView;
 
 import com.roozen.SoundManagerv2.R;
-import com.roozen.SoundManagerv2.utils.Util;
 
 /**
- * Defines layout for Schedule list items
+ * Schedule list item, inflated from R.layout.schedule_row and recycled by
+ * the ScheduleListAdapter. Holds on to its child views, and remembers the
+ * schedule it shows so binding another only touches what differs.
  * 
  * @author Mike Partridge
  */
-public class ScheduleView extends LinearLayout {
+public class ScheduleView extends RelativeLayout {
     
-    private TextView mDay0;
-    private TextView mDay1;
-    private TextView mDay2;
-    private TextView mDay3;
-    private TextView mDay4;
-    private TextView mDay5;
-    private TextView mDay6;
+    //setTextColor(int) makes a new ColorStateList each call
+    private static final ColorStateList ACTIVE_COLOR = ColorStateList.valueOf(Color.GREEN);
+    private static final ColorStateList INACTIVE_COLOR = ColorStateList.valueOf(Color.RED);
+    
+    //day labels for every days bitmask, built once
+    private static String[] sDayLabels;
+    
+    //max volume of each stream, read once
+    private static int[] sMaxVolumes;
+    
+    private TextView mActive;
+    private TextView mDays;
     private TextView mStartTime;
     private SeekBar mVolume;
-    private int mVolumeType;
+    private TextView mVibrateLabel;
     private TextView mVibrate;
-    private TextView mActive;
+    
+    //packed schedule shown, -1 for none yet
+    private long mShown = -1;
+    
+    //clock format the start time is shown in
+    private boolean mShownClock24Hour;
     
     /**
      * @param context
-     * @param schedule
+     * @param attrs
      */
-    public ScheduleView(Context context, Schedule schedule) {
-        super(context);
-        
-        mVolumeType = schedule.getVolumeType();
-        
-        AudioManager audio = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-        
-        this.setOrientation(VERTICAL);
-
-        //convenience for addView calls later
-        LinearLayout.LayoutParams paramsWrapBoth = new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
-        LinearLayout.LayoutParams paramsFillWrap = new LinearLayout.LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.WRAP_CONTENT);
-        
-        /*
-         * setting data here *should* be faster than calling the setters; otherwise I'd just call them
-         *  and keep any special field-display logic there
-         */
-        
-        TableLayout tableLayout = new TableLayout(context);
-        tableLayout.setColumnStretchable(1, true);
-        
-        TableRow activeDaysRow = new TableRow(context);
-        
-        /*
-         * active
-         */
-        
-        mActive = new TextView(context);
-        mActive.setPadding(2, 2, 2, 2);
-        mActive.setText(schedule.isActive() ? "ACTIVE" : "INACTIVE");
-        mActive.setTextColor(schedule.isActive() ? Color.GREEN : Color.RED);
-        activeDaysRow.addView(mActive);
-        
-        /*
-         * days
-         */
-        
-        LinearLayout daysLayout = new LinearLayout(context);
-        daysLayout.setOrientation(HORIZONTAL);
-        daysLayout.setGravity(Gravity.CENTER);
-
-        mDay0 = new TextView(context);
-        mDay0.setPadding(5, 5, 5, 5);
-        mDay0.setText(schedule.isDay0() ? getContext().getText(R.string.day0) : "   ");
-        daysLayout.addView(mDay0, paramsWrapBoth);
-        mDay1 = new TextView(context);
-        mDay1.setPadding(5, 5, 5, 5);
-        mDay1.setText(schedule.isDay1() ? getContext().getText(R.string.day1) : "   ");
-        daysLayout.addView(mDay1, paramsWrapBoth);
-        mDay2 = new TextView(context);
-        mDay2.setPadding(5, 5, 5, 5);
-        mDay2.setText(schedule.isDay2() ? getContext().getText(R.string.day2) : "   ");
-        daysLayout.addView(mDay2, paramsWrapBoth);
-        mDay3 = new TextView(context);
-        mDay3.setPadding(5, 5, 5, 5);
-        mDay3.setText(schedule.isDay3() ? getContext().getText(R.string.day3) : "   ");
-        daysLayout.addView(mDay3, paramsWrapBoth);
-        mDay4 = new TextView(context);
-        mDay4.setPadding(5, 5, 5, 5);
-        mDay4.setText(schedule.isDay4() ? getContext().getText(R.string.day4) : "   ");
-        daysLayout.addView(mDay4, paramsWrapBoth);
-        mDay5 = new TextView(context);
-        mDay5.setPadding(5, 5, 5, 5);
-        mDay5.setText(schedule.isDay5() ? getContext().getText(R.string.day5) : "   ");
-        daysLayout.addView(mDay5, paramsWrapBoth);
-        mDay6 = new TextView(context);
-        mDay6.setPadding(5, 5, 5, 5);
-        mDay6.setText(schedule.isDay6() ? getContext().getText(R.string.day6) : "   ");
-        daysLayout.addView(mDay6, paramsWrapBoth);
-        activeDaysRow.addView(daysLayout);
-        
-        tableLayout.addView(activeDaysRow);
-        
-        /*
-         * time
-         */
-        TableRow timeRow = new TableRow(context);
-        
-        TextView startTimeLabel = new TextView(context);
-        startTimeLabel.setPadding(2, 2, 10, 2);
-        startTimeLabel.setText(R.string.startTimeLabel);
-        timeRow.addView(startTimeLabel);
-        
-        mStartTime = new TextView(context);
-        mStartTime.setTextSize(18);
-        mStartTime.setPadding(2, 2, 2, 2);
-        mStartTime.setText(formatTime(schedule.getStartHour(), schedule.getStartMinute()));
-        timeRow.addView(mStartTime);
-        
-        tableLayout.addView(timeRow);
-        
-        /*
-         * volume
-         */
-        TableRow volumeRow = new TableRow(context);
-        
-        TextView volumeLabel = new TextView(context);
-        volumeLabel.setPadding(2, 7, 2, 2);
-        volumeLabel.setText(R.string.volumeLabel);
-        volumeRow.addView(volumeLabel);
-        
-        mVolume = new SeekBar(context);
-        mVolume.setEnabled(false);
-        mVolume.setFocusable(false);
-        mVolume.setFocusableInTouchMode(false);
-        mVolume.setClickable(false);
-        mVolume.setPadding(2, 2, 7, 2);
-        mVolume.setMax(audio.getStreamMaxVolume(mVolumeType));
-        mVolume.setProgress(schedule.getVolume());
-
-        TableRow.LayoutParams volumeLayoutParams = new TableRow.LayoutParams();
-        volumeLayoutParams.span = 2;
-        volumeRow.addView(mVolume, volumeLayoutParams);
-        
-        tableLayout.addView(volumeRow);
-        
-        TableRow vibrateRow = new TableRow(context);
-        
-        /*
-         * vibrate
-         */
-        
-        TextView vibrateLabel = new TextView(context);
-        vibrateLabel.setPadding(2, 2, 2, 2);
-        vibrateLabel.setText(R.string.vibrateLabel);
-        vibrateRow.addView(vibrateLabel);
-        
-        mVibrate = new TextView(context);
-        mVibrate.setPadding(2, 2, 2, 2);
-        mVibrate.setText(schedule.isVibrate() ? "On" : "Off");
-        vibrateRow.addView(mVibrate);
-        
-        /*
-         * display the vibrate setting only for certain streams
-         */
-        if (mVolumeType == AudioManager.STREAM_RING ||
-                mVolumeType == AudioManager.STREAM_NOTIFICATION) {
-            tableLayout.addView(vibrateRow, paramsFillWrap);
-        }
-        
-        addView(tableLayout, paramsFillWrap);
-    }
- 
-    private String formatTime(int hour, int minute) {
-        
-        if (Util.is24HourClock(getContext().getContentResolver())) {
-            return (hour < 10 ? "0" : "") + hour + ":" +
-                   (minute < 10 ? "0" : "") + minute;
-        }
-        else {
-            String hourDsc = String.valueOf(hour);
-
-            if (hour < 1 || hour > 23) {
-                hourDsc = "12";
-            }
-            else if (hour > 12) {
-                hourDsc = String.valueOf(hour - 12);
-            }
-
-            return hourDsc + ":" + 
-                   (minute < 10 ? "0" : "") + minute +
-                   (hour >= 12 && hour < 24 ? "PM" : "AM");
-        }
-        
+    public ScheduleView(Context context, AttributeSet attrs) {
+        super(context, attrs);
     }
     
     /**
-     * @param schedule
+     * @param context
+     * @param parent the list the view goes in
+     * @return a new, empty ScheduleView
      */
-    public void setFromSchedule(Schedule schedule) {
-        
-        setDay0(schedule.isDay0());
-        setDay1(schedule.isDay1());
-        setDay2(schedule.isDay2());
-        setDay3(schedule.isDay3());
-        setDay4(schedule.isDay4());
-        setDay5(schedule.isDay5());
-        setDay6(schedule.isDay6());
-        setStartTime(formatTime(schedule.getStartHour(), schedule.getStartMinute()));
-        setVolume(schedule.getVolume());
-        setVibrate(schedule.isVibrate());
-        setActive(schedule.isActive());
-        
+    public static ScheduleView inflate(Context context, ViewGroup parent) {
+        return (ScheduleView) LayoutInflater.from(context).inflate(R.layout.schedule_row, parent, false);
     }
     
-    /**
-     * @param day
-     */
-    public void setDay0(boolean day) {
-        mDay0.setText(day ? getContext().getText(R.string.day0) : "   ");
-    }
- 
-    /**
-     * @param day
-     */
-    public void setDay1(boolean day) {
-        mDay1.setText(day ? getContext().getText(R.string.day1) : "   ");
-    }
- 
-    /**
-     * @param day
-     */
-    public void setDay2(boolean day) {
-        mDay2.setText(day ? getContext().getText(R.string.day2) : "   ");
-    }
- 
-    /**
-     * @param day
-     */
-    public void setDay3(boolean day) {
-        mDay3.setText(day ? getContext().getText(R.string.day3) : "   ");
-    }
- 
-    /**
-     * @param day
+    /* (non-Javadoc)
+     * @see android.view.View#onFinishInflate()
      */
-    public void setDay4(boolean day) {
-        mDay4.setText(day ? getContext().getText(R.string.day4) : "   ");
+    @Override
+    protected void onFinishInflate() {
+        super.onFinishInflate();
+        
+        mActive = (TextView) findViewById(R.id.rowActive);
+        mDays = (TextView) findViewById(R.id.rowDays);
+        mStartTime = (TextView) findViewById(R.id.rowStartTime);
+        mVolume = (SeekBar) findViewById(R.id.rowVolume);
+        mVibrateLabel = (TextView) findViewById(R.id.rowVibrateLabel);
+        mVibrate = (TextView) findViewById(R.id.rowVibrate);
     }
  
     /**
-     * @param day
+     * Shows the schedule, setting only the fields that differ from the
+     * schedule shown before
+     * 
+     * @param packed schedule, see Schedule.pack()
      */
-    public void setDay5(boolean day) {
-        mDay5.setText(day ? getContext().getText(R.string.day5) : "   ");
-    }
- 
-    /**
-     * @param day
-     */
-    public void setDay6(boolean day) {
-        mDay6.setText(day ? getContext().getText(R.string.day6) : "   ");
-    }
-    
-    /**
-     * @param startTime
-     */
-    public void setStartTime(String startTime) {
-        mStartTime.setText(startTime);
-    }
+    public void setFromPacked(long packed) {
+        long shown = mShown;
+        boolean first = (shown < 0);
         
-    /**
-     * @param volume
-     */
-    public void setVolume(int volume) {
-        mVolume.setProgress(volume);
-    }
-    
-    /**
-     * @param vibrate
-     */
-    public void setVibrate(boolean vibrate) {
-        mVibrate.setText(vibrate ? "On" : "Off");
+        if (first || Schedule.getDays(packed) != Schedule.getDays(shown)) {
+            mDays.setText(getDayLabels(getContext())[Schedule.getDays(packed)]);
+        }
+        
+        boolean clock24Hour = TimeLabels.is24HourClock(getContext());
+        if (first || Schedule.getMinuteOfDay(packed) != Schedule.getMinuteOfDay(shown)
+                || clock24Hour != mShownClock24Hour) {
+            mStartTime.setText(TimeLabels.getLabel(getContext(), Schedule.getMinuteOfDay(packed)));
+            mShownClock24Hour = clock24Hour;
+        }
+        
+        int volumeType = Schedule.getVolumeType(packed);
+        if (first || volumeType != Schedule.getVolumeType(shown)) {
+            mVolume.setMax(getMaxVolume(getContext(), volumeType));
+            
+            /*
+             * display the vibrate setting only for certain streams
+             */
+            int visibility = (volumeType == AudioManager.STREAM_RING 
+                              || volumeType == AudioManager.STREAM_NOTIFICATION) ? View.VISIBLE : View.GONE;
+            mVibrateLabel.setVisibility(visibility);
+            mVibrate.setVisibility(visibility);
+        }
+        
+        if (first || Schedule.getVolume(packed) != Schedule.getVolume(shown)
+                || volumeType != Schedule.getVolumeType(shown)) {
+            mVolume.setProgress(Schedule.getVolume(packed));
+        }
+        
+        if (first || Schedule.isVibrate(packed) != Schedule.isVibrate(shown)) {
+            mVibrate.setText(Schedule.isVibrate(packed) ? "On" : "Off");
+        }
+        
+        if (first || Schedule.isActive(packed) != Schedule.isActive(shown)) {
+            boolean active = Schedule.isActive(packed);
+            mActive.setText(active ? "ACTIVE" : "INACTIVE");
+            mActive.setTextColor(active ? ACTIVE_COLOR : INACTIVE_COLOR);
+        }
+        
+        mShown = packed;
     }
     
-    /**
-     * @param active
+    /*
+     * the set days by name, with blanks as wide as the name for the rest so
+     * the days line up in the monospace label; indexed by days bitmask
      */
-    public void setActive(boolean active) {
-        mActive.setText(active ? "ACTIVE" : "INACTIVE");
-        mActive.setTextColor(active ? Color.GREEN : Color.RED);
+    private static String[] getDayLabels(Context context) {
+        if (sDayLabels == null) {
+            String[] names = {
+                context.getString(R.string.day0),
+                context.getString(R.string.day1),
+                context.getString(R.string.day2),
+                context.getString(R.string.day3),
+                context.getString(R.string.day4),
+                context.getString(R.string.day5),
+                context.getString(R.string.day6)
+            };
+            
+            String[] labels = new String[Schedule.ALL_DAYS + 1];
+            StringBuilder sb = new StringBuilder();
+            for (int days = 0; days < labels.length; days++) {
+                sb.setLength(0);
+                
+                for (int day = 0; day < names.length; day++) {
+                    if (day > 0) {
+                        sb.append(' ');
+                    }
+                    
+                    if ((days & (1 << day)) != 0) {
+                        sb.append(names[day]);
+                    }
+                    else {
+                        for (int i = 0; i < names[day].length(); i++) {
+                            sb.append(' ');
+                        }
+                    }
+                }
+                
+                labels[days] = sb.toString();
+            }
+            
+            sDayLabels = labels;
+        }
+        
+        return sDayLabels;
     }
     
-    /**
-     * @param volumeType
-     */
-    public void setVolumeType(int volumeType) {
-        mVolumeType = volumeType;
+    private static int getMaxVolume(Context context, int volumeType) {
+        if (sMaxVolumes == null) {
+            AudioManager audio = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            
+            int[] maxVolumes = new int[ScheduleTimeline.STREAM_COUNT];
+            for (int stream = 0; stream < maxVolumes.length; stream++) {
+                maxVolumes[stream] = audio.getStreamMaxVolume(stream);
+            }
+            
+            sMaxVolumes = maxVolumes;
+        }
+        
+        return volumeType >= 0 && volumeType < sMaxVolumes.length ? sMaxVolumes[volumeType] : 0;
     }
     
 }
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2009 Mike Partridge
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, 
+ * software distributed under the License is distributed 
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language 
+ * governing permissions and limitations under the License. 
+ */
+package com.roozen.SoundManagerv2.schedule;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.Settings;
+
+import com.roozen.SoundManagerv2.utils.Util;
+
+/**
+ * Labels for schedule start times in the system clock format. The format
+ * is read from the settings once and kept until the setting changes; each
+ * minute of the day's label is built the first time it's asked for.
+ * 
+ * @author Mike Partridge
+ */
+public class TimeLabels {
+
+    //null until read, and again once the setting changes
+    private static Boolean sClock24Hour;
+    
+    //labels by minute of day, in the format of sLabels24Hour
+    private static String[] sLabels;
+    private static boolean sLabels24Hour;
+    
+    private static ContentObserver sObserver;
+
+    /**
+     * @param context
+     * @return true if the system clock is set to 24 hours
+     */
+    public static synchronized boolean is24HourClock(Context context) {
+        if (sClock24Hour == null) {
+            ContentResolver cr = context.getApplicationContext().getContentResolver();
+            
+            if (sObserver == null) {
+                //no handler; a change is only noted, so it can come in on any thread
+                sObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        synchronized (TimeLabels.class) {
+                            sClock24Hour = null;
+                        }
+                    }
+                };
+                cr.registerContentObserver(Settings.System.getUriFor(Settings.System.TIME_12_24), 
+                                           false, sObserver);
+            }
+            
+            sClock24Hour = Util.is24HourClock(cr);
+        }
+        
+        return sClock24Hour.booleanValue();
+    }
+
+    /**
+     * @param context
+     * @param minuteOfDay 0 to 1439
+     * @return the time, e.g. "07:30" or "7:30AM"
+     */
+    public static synchronized String getLabel(Context context, int minuteOfDay) {
+        boolean clock24Hour = is24HourClock(context);
+        
+        if (sLabels == null || sLabels24Hour != clock24Hour) {
+            sLabels = new String[ScheduleTimeline.MINUTES_PER_DAY];
+            sLabels24Hour = clock24Hour;
+        }
+        
+        String label = sLabels[minuteOfDay];
+        if (label == null) {
+            label = format(minuteOfDay / 60, minuteOfDay % 60, clock24Hour);
+            sLabels[minuteOfDay] = label;
+        }
+        
+        return label;
+    }
+    
+    private static String format(int hour, int minute, boolean clock24Hour) {
+        
+        if (clock24Hour) {
+            return (hour < 10 ? "0" : "") + hour + ":" +
+                   (minute < 10 ? "0" : "") + minute;
+        }
+        else {
+            String hourDsc = String.valueOf(hour);
+
+            if (hour < 1 || hour > 23) {
+                hourDsc = "12";
+            }
+            else if (hour > 12) {
+                hourDsc = String.valueOf(hour - 12);
+            }
+
+            return hourDsc + ":" + 
+                   (minute < 10 ? "0" : "") + minute +
+                   (hour >= 12 && hour < 24 ? "PM" : "AM");
+        }
+        
+    }
+
+}
@@ -19,65 +19,116 @@ import java.util.Calendar;
 import java.util.Locale;
 import java.util.TimeZone;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.app.Service;
-import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.IBinder;
+import android.util.Log;
 
-import com.roozen.SoundManagerv2.provider.ScheduleProvider;
-import com.roozen.SoundManagerv2.receivers.SoundTimer;
-import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+import com.roozen.SoundManagerv2.schedule.ScheduleTimeline;
+import com.roozen.SoundManagerv2.utils.AlarmScheduler;
+import com.roozen.SoundManagerv2.utils.AudioStateWriter;
 
+/**
+ * Brings every stream in line with the schedules in force right now, then
+ * arms the alarm for the next transition. Started with {@link #ACTION_REARM}
+ * it only re-arms the alarm.
+ * 
+ * @author droozen
+ */
 public class BootupService extends Service {
 	
+	/**
+	 * Action to only re-arm the alarm, without touching the current settings
+	 */
+	public static final String ACTION_REARM = "com.roozen.SoundManagerv2.intent.REARM";
+	
+	/**
+	 * Intent extra holding the time, in millis, after which the next alarm should be armed
+	 */
+	public static final String EXTRA_AFTER = "after";
+	
 	@Override
-	public void onStart(Intent intent, int startId) {
+	public void onStart(final Intent intent, int startId) {
 		super.onStart(intent, startId);
 		
-		/*
-		 * get all active schedules and register them with the AlarmManager
-		 */
-		ContentResolver cr = getContentResolver();
-		Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, "active");
-		Cursor scheduleCursor = cr.query(schedulesUri, null, null, null, SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", " + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE);
-		
-		if (scheduleCursor.moveToFirst()) {
-		    
-		    AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
-		    int idIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_ID);
-            int startHourIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_START_HOUR);
-            int startMinuteIndex = scheduleCursor.getColumnIndex(SQLiteDatabaseHelper.SCHEDULE_START_MINUTE);
+		ScheduleWorker.post(this, intent, startId, new Runnable() {
 		    
-		    do {
-		        
-		        int scheduleId = scheduleCursor.getInt(idIndex);
-		        int startHour = scheduleCursor.getInt(startHourIndex);
-		        int startMinute = scheduleCursor.getInt(startMinuteIndex);
-		        
-                Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault());
-                cal.set(Calendar.HOUR_OF_DAY, startHour);
-                cal.set(Calendar.MINUTE, startMinute);
-                cal.set(Calendar.SECOND, 0);
-                cal.set(Calendar.MILLISECOND, 200);
-		        
-		        Intent scheduleIntent = new Intent(this, SoundTimer.class);
-		        scheduleIntent.setData(Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId)));
-		        PendingIntent pi = PendingIntent.getBroadcast(this, 0, scheduleIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-		        
-		        //repeat the alarm every day; the receiver will check day of week
-		        alarmManager.setRepeating(AlarmManager.RTC_WAKEUP, cal.getTimeInMillis(), AlarmManager.INTERVAL_DAY, pi);
-		        
-		    } while(scheduleCursor.moveToNext());
+		    public void run() {
+		        startup(intent);
+		    }
 		    
-	    }
+		});
+	}
+	
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+	    onStart(intent, startId);
+	    return START_NOT_STICKY;
+	}
+	
+	/**
+	 * Reconciles unless the intent only asks to re-arm, then arms the alarm
+	 * 
+	 * @param intent
+	 */
+	private void startup(Intent intent) {
+		
+		long now = System.currentTimeMillis();
+		long after = now;
+		boolean reconcile = true;
+		if (intent != null) {
+		    after = intent.getLongExtra(EXTRA_AFTER, now);
+		    reconcile = !ACTION_REARM.equals(intent.getAction());
+		}
 		
-		scheduleCursor.close();
+		if (reconcile) {
+		    reconcile(now);
+		    AlarmScheduler.setAppliedThrough(this, now);
+		}
 		
-        stopSelf();
+		/*
+		 * arm a single alarm for the next transition of any active schedule;
+		 * anything already passed was covered above. A plain re-arm after an 
+		 * edit can keep the alarm if the schedules didn't actually change.
+		 */
+		if (!reconcile && !intent.hasExtra(EXTRA_AFTER)) {
+		    AlarmScheduler.rearmIfChanged(this);
+		}
+		else {
+		    AlarmScheduler.rearm(this, after);
+		}
+	}
+	
+	/**
+	 * Applies the settings in force at the given time to each scheduled stream,
+	 * once, instead of replaying every transition since the last one that ran
+	 * 
+	 * @param now time in millis
+	 */
+	private void reconcile(long now) {
+	    ScheduleTimeline timeline = ScheduleTimeline.getInstance(this);
+	    if (timeline.isEmpty()) {
+	        return;
+	    }
+	    
+	    Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault());
+	    cal.setTimeInMillis(now);
+	    int minuteOfWeek = ScheduleTimeline.getMinuteOfWeek(cal);
+	    
+	    AudioStateWriter writer = new AudioStateWriter(this);
+	    
+	    for (int stream = 0; stream < ScheduleTimeline.STREAM_COUNT; stream++) {
+	        if (timeline.hasSchedules(stream)) {
+	            ChangeVolume.applySettings(writer, stream, 
+	                                       timeline.getVolume(stream, minuteOfWeek), 
+	                                       timeline.isVibrate(stream, minuteOfWeek));
+	        }
+	    }
+	    
+	    //one pass over every stream; only what differs gets written
+	    int skipped = writer.apply();
+	    Log.d(BootupService.class.toString(), 
+	          "Reconciled: " + writer.getIssuedCalls() + " audio calls, " + skipped + " skipped");
 	}
 	
 	@Override
@@ -20,16 +20,16 @@ import java.util.Locale;
 import java.util.TimeZone;
 
 import android.app.Service;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.media.AudioManager;
-import android.net.Uri;
 import android.os.IBinder;
+import android.util.Log;
 
-import com.roozen.SoundManagerv2.provider.ScheduleProvider;
-import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+import com.roozen.SoundManagerv2.schedule.Schedule;
+import com.roozen.SoundManagerv2.schedule.ScheduleTimeline;
+import com.roozen.SoundManagerv2.utils.AlarmScheduler;
+import com.roozen.SoundManagerv2.utils.AudioStateWriter;
 
 /**
  * Service that changes volume, ringmode, and vibrate setting given a schedule id
@@ -39,121 +39,152 @@ import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
 public class ChangeVolume extends Service {
 
 	@Override
-	public void onStart(Intent intent, int startId) {
+	public void onStart(final Intent intent, int startId) {
 		super.onStart(intent, startId);
 		
-		int scheduleId = Integer.parseInt(intent.getData().getPathSegments().get(1));
-		
-		if (scheduleId > 0) {
+		ScheduleWorker.post(this, intent, startId, new Runnable() {
 		    
-		    ContentResolver cr = getContentResolver();
-            Uri schedulesUri = Uri.withAppendedPath(ScheduleProvider.CONTENT_URI, String.valueOf(scheduleId));
-            Cursor scheduleCursor = cr.query(schedulesUri, null, null, null, null);
-
-            if (scheduleCursor.moveToFirst()) {
-            
-                boolean day0 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY0)) > 0);
-                boolean day1 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY1)) > 0);
-                boolean day2 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY2)) > 0);
-                boolean day3 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY3)) > 0);
-                boolean day4 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY4)) > 0);
-                boolean day5 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY5)) > 0);
-                boolean day6 = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_DAY6)) > 0);
-                int volume = scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_VOLUME));
-                boolean vibrate = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_VIBRATE)) > 0);
-                boolean active = (scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_ACTIVE)) > 0);
-                int volumeType = scheduleCursor.getInt(scheduleCursor.getColumnIndexOrThrow(SQLiteDatabaseHelper.SCHEDULE_TYPE));
-                
-                if (active) {
-                    
-                    Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault());
-                    int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
-                    
-                    /*
-                     * if the schedule is setup for today, apply the settings
-                     */
-                    if (dayOfWeek == Calendar.SUNDAY && day0 ||
-                            dayOfWeek == Calendar.MONDAY && day1 ||
-                            dayOfWeek == Calendar.TUESDAY && day2 ||
-                            dayOfWeek == Calendar.WEDNESDAY && day3 ||
-                            dayOfWeek == Calendar.THURSDAY && day4 ||
-                            dayOfWeek == Calendar.FRIDAY && day5 ||
-                            dayOfWeek == Calendar.SATURDAY && day6                            
-                    ) {
-
-                        final AudioManager audio = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-                        
-                        switch (volumeType) {
-                            case AudioManager.STREAM_SYSTEM:
-                                audio.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                                setVolume(volumeType, volume);
-                                break;
-                            case AudioManager.STREAM_RING:
-                                audio.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                                setVolume(volumeType, volume);
-                                setVibration(AudioManager.VIBRATE_TYPE_RINGER, vibrate);                                
-                                break;
-                            case AudioManager.STREAM_NOTIFICATION:
-                                audio.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                                setVolume(volumeType, volume);
-                                setVibration(AudioManager.VIBRATE_TYPE_NOTIFICATION, vibrate);
-                                break;
-                            case AudioManager.STREAM_MUSIC:
-                                setVolume(volumeType, volume);
-                                break;
-                            case AudioManager.STREAM_ALARM:
-                                setVolume(volumeType, volume);
-                                break;
-                            case AudioManager.STREAM_VOICE_CALL:
-                                setVolume(volumeType, volume);
-                                break;
-                        }
-                                                
-                    } //schedule applies today
-                    
-                } //end active check
-                
-            } //end schedule cursor check
-            
-            scheduleCursor.close();		    
-		} //schedule id was found
+		    public void run() {
+		        changeVolume(intent);
+		    }
+		    
+		});
+	}
+	
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+	    onStart(intent, startId);
+	    
+	    //the alarm will come around again; don't restart with a null intent
+	    return START_NOT_STICKY;
+	}
+	
+	/**
+	 * Applies the schedules named in the intent's data or schedule id extra;
+	 * when they came from the alarm, arms it for the following transition
+	 * 
+	 * @param intent
+	 */
+	private void changeVolume(Intent intent) {
+		
+		int[] scheduleIds = intent.getIntArrayExtra(AlarmScheduler.EXTRA_SCHEDULE_IDS);
+		if (scheduleIds == null) {
+		    scheduleIds = new int[] {Integer.parseInt(intent.getData().getPathSegments().get(1))};
+		}
+		
+		long triggerAt = intent.getLongExtra(AlarmScheduler.EXTRA_TRIGGER_AT, 0);
+		
+		if (triggerAt > 0) {
+		    applyTransition(this, scheduleIds, triggerAt);
+		}
+		else {
+		    applySchedules(this, scheduleIds);
+		}
 		
-		stopSelf();
 	}
 	
-    private void setVolume(int stream, int volume) {
-        final AudioManager audio = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-
-        int maxVolume = audio.getStreamMaxVolume(stream);
-        if (volume > maxVolume) {
-            volume = maxVolume;
-        }
-        else if (volume < 0) {
-            volume = 0;
-        }
-
-        int flags = AudioManager.FLAG_PLAY_SOUND;
-        flags = flags | AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE;
-        flags = flags | AudioManager.FLAG_SHOW_UI;
-        flags = flags | AudioManager.FLAG_VIBRATE;
-
-        /*
-         * apply volume to the system
-         */
-        audio.setStreamVolume(stream, volume, flags);
-    }
-
-    private void setVibration(int type, boolean vibrate) {
-        final AudioManager audio = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+	/**
+	 * Applies the schedules due at an alarm's transition, records the batch,
+	 * and arms the alarm for the following transition; safe to call off the
+	 * main thread, from the service or straight from the receiver
+	 * 
+	 * @param context
+	 * @param scheduleIds
+	 * @param triggerAt time, in millis, the alarm was set for
+	 */
+	public static void applyTransition(Context context, int[] scheduleIds, long triggerAt) {
+	    try {
+	        int applied = applySchedules(context, scheduleIds);
+	        
+	        //alarm-to-applied time and the fire counts
+	        ScheduleWorker.recordLatency(System.currentTimeMillis() - triggerAt);
+	        AlarmScheduler.recordBatch(context, applied, scheduleIds.length - applied);
+	    }
+	    finally {
+	        /*
+	         * there's only the one alarm; whatever happened applying these,
+	         * the next transition still needs it, and this one is done with
+	         */
+	        AlarmScheduler.setAppliedThrough(context, triggerAt);
+	        AlarmScheduler.rearm(context, triggerAt);
+	    }
+	}
+	
+	/**
+	 * Applies every given schedule that is active and set for today as one
+	 * batch: one look at the timeline and one pass over the AudioManager;
+	 * safe to call off the main thread
+	 * 
+	 * @param context
+	 * @param scheduleIds
+	 * @return number of schedules applied
+	 */
+	public static int applySchedules(Context context, int[] scheduleIds) {
+	    int applied = 0;
+	    
+	    /*
+	     * the shared timeline only holds active schedules
+	     */
+	    ScheduleTimeline timeline = ScheduleTimeline.getInstance(context);
+	    
+	    Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault());
+	    int today = cal.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+	    
+	    AudioStateWriter writer = new AudioStateWriter(context);
+	    
+	    for (int scheduleId : scheduleIds) {
+	        long schedule = timeline.getSchedule(scheduleId);
+	        
+	        /*
+	         * if the schedule is setup for today, add its settings to the batch
+	         */
+	        if (schedule >= 0 && Schedule.isDay(schedule, today)) {
+	            applySettings(writer, Schedule.getVolumeType(schedule), Schedule.getVolume(schedule), 
+	                          Schedule.isVibrate(schedule));
+	            applied++;
+	        }
+	    }
+	    
+	    if (applied > 0) {
+	        int skipped = writer.apply();
+	        Log.d(ChangeVolume.class.toString(), 
+	              applied + " schedules: " + writer.getIssuedCalls() + " audio calls, " + skipped + " skipped");
+	    }
+	    
+	    return applied;
+	}
+	
+    /**
+     * Adds a schedule's volume and vibrate settings for one stream to the
+     * writer's targets; nothing is changed until the writer is applied
+     * 
+     * @param writer
+     * @param volumeType
+     * @param volume
+     * @param vibrate
+     */
+    static void applySettings(AudioStateWriter writer, int volumeType, int volume, boolean vibrate) {
         
-        /*
-         * apply vibrate settings to the system
-         */
-        if (vibrate) {
-            audio.setVibrateSetting(type, AudioManager.VIBRATE_SETTING_ON);
-        }
-        else {
-            audio.setVibrateSetting(type, AudioManager.VIBRATE_SETTING_OFF);
+        switch (volumeType) {
+            case AudioManager.STREAM_SYSTEM:
+                writer.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+                writer.setVolume(volumeType, volume);
+                break;
+            case AudioManager.STREAM_RING:
+                writer.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+                writer.setVolume(volumeType, volume);
+                writer.setVibrate(AudioManager.VIBRATE_TYPE_RINGER, vibrate);
+                break;
+            case AudioManager.STREAM_NOTIFICATION:
+                writer.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+                writer.setVolume(volumeType, volume);
+                writer.setVibrate(AudioManager.VIBRATE_TYPE_NOTIFICATION, vibrate);
+                break;
+            case AudioManager.STREAM_MUSIC:
+            case AudioManager.STREAM_ALARM:
+            case AudioManager.STREAM_VOICE_CALL:
+                writer.setVolume(volumeType, volume);
+                break;
         }
         
     }
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2009 Daniel Roozen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.roozen.SoundManagerv2.services;
+
+import java.lang.reflect.Method;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Single background thread shared by the schedule services, so their db
+ * and AudioManager work never runs on the main thread. Work started from
+ * an alarm keeps the device awake until it finishes.
+ *
+ * @author droozen
+ */
+public class ScheduleWorker {
+
+    private static final String TAG = ScheduleWorker.class.toString();
+
+    /*
+     * marks intents that were started holding the wake lock
+     */
+    private static final String EXTRA_WAKEFUL = "wakeful";
+
+    private static Handler sHandler;
+    private static PowerManager.WakeLock sWakeLock;
+
+    //BroadcastReceiver.goAsync and PendingResult.finish, API 11 and up
+    private static Method sGoAsync;
+    private static Method sFinish;
+
+    //upper bounds, in millis, of the alarm-to-applied latency histogram buckets
+    private static final long[] LATENCY_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500};
+    private static final int[] sLatencyCounts = new int[LATENCY_BUCKETS.length + 1];
+
+    //instrumentation, in microseconds
+    private static long sJobs;
+    private static long sPostMicros;
+    private static long sWorkerMicros;
+
+    /**
+     * Starts a service while holding a wake lock, which is released once the
+     * service's work on the worker thread completes; for use from receivers,
+     * where the device may go back to sleep as soon as onReceive returns
+     *
+     * @param context
+     * @param intent
+     */
+    public static void startWakefulService(Context context, Intent intent) {
+        acquireWakeLock(context);
+
+        intent.putExtra(EXTRA_WAKEFUL, true);
+        context.startService(intent);
+    }
+
+    /**
+     * Runs a service's work on the worker thread, then stops the service
+     * for that start id and releases the wake lock if it was started wakeful
+     *
+     * @param service
+     * @param intent
+     * @param startId
+     * @param work
+     */
+    public static void post(final Service service, final Intent intent, final int startId, final Runnable work) {
+        final long postedAt = System.nanoTime();
+
+        getHandler().post(new Runnable() {
+
+            public void run() {
+                long startedAt = System.nanoTime();
+
+                try {
+                    work.run();
+                }
+                finally {
+                    long finishedAt = System.nanoTime();
+                    record(service, (finishedAt - startedAt) / 1000, (startedAt - postedAt) / 1000);
+
+                    service.stopSelfResult(startId);
+
+                    if (intent != null && intent.getBooleanExtra(EXTRA_WAKEFUL, false)) {
+                        releaseWakeLock();
+                    }
+                }
+            }
+
+        });
+
+        synchronized (ScheduleWorker.class) {
+            sPostMicros += (System.nanoTime() - postedAt) / 1000;
+        }
+    }
+
+    /**
+     * Runs a receiver's work on the worker thread past the end of onReceive,
+     * through goAsync where the platform has it (API 11); the broadcast, and
+     * the alarm's wake lock with it, stays held until the work finishes
+     *
+     * @param receiver
+     * @param work
+     * @return false, having done nothing, if goAsync isn't available
+     */
+    public static boolean postAsync(final BroadcastReceiver receiver, final Runnable work) {
+        if (!initGoAsync()) {
+            return false;
+        }
+
+        final Object result;
+        try {
+            result = sGoAsync.invoke(receiver);
+        }
+        catch (Exception e) {
+            Log.w(TAG, "Could not go async.", e);
+            return false;
+        }
+
+        final long postedAt = System.nanoTime();
+
+        getHandler().post(new Runnable() {
+
+            public void run() {
+                long startedAt = System.nanoTime();
+
+                try {
+                    work.run();
+                }
+                finally {
+                    long finishedAt = System.nanoTime();
+                    record(receiver, (finishedAt - startedAt) / 1000, (startedAt - postedAt) / 1000);
+
+                    try {
+                        sFinish.invoke(result);
+                    }
+                    catch (Exception e) {
+                        Log.e(TAG, "Could not finish the broadcast.", e);
+                    }
+                }
+            }
+
+        });
+
+        synchronized (ScheduleWorker.class) {
+            sPostMicros += (System.nanoTime() - postedAt) / 1000;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return average time, in microseconds, the caller spent posting each job
+     */
+    public static synchronized long getAveragePostMicros() {
+        return sJobs == 0 ? 0 : sPostMicros / sJobs;
+    }
+
+    /**
+     * @return average time, in microseconds, each job spent on the worker thread
+     */
+    public static synchronized long getAverageWorkerMicros() {
+        return sJobs == 0 ? 0 : sWorkerMicros / sJobs;
+    }
+
+    /**
+     * Adds the time from an alarm's trigger time to its settings being applied
+     * to the latency histogram
+     *
+     * @param millis
+     */
+    public static synchronized void recordLatency(long millis) {
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && millis >= LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        sLatencyCounts[bucket]++;
+
+        Log.d(TAG, "Applied " + millis + "ms after the alarm; " + getLatencyHistogram());
+    }
+
+    /**
+     * @return alarm-to-applied latency histogram, e.g. "<10ms:4 <25ms:1 ... >=2500ms:0"
+     */
+    public static synchronized String getLatencyHistogram() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            sb.append('<').append(LATENCY_BUCKETS[i]).append("ms:").append(sLatencyCounts[i]).append(' ');
+        }
+        sb.append(">=").append(LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]).append("ms:")
+          .append(sLatencyCounts[LATENCY_BUCKETS.length]);
+
+        return sb.toString();
+    }
+
+    private static synchronized void record(Object owner, long workerMicros, long queuedMicros) {
+        sJobs++;
+        sWorkerMicros += workerMicros;
+
+        Log.d(TAG, owner.getClass().getSimpleName() + " ran " + workerMicros + "us after waiting "
+                   + queuedMicros + "us; average post " + (sPostMicros / sJobs) + "us");
+    }
+
+    /*
+     * looks both methods up once; both or neither, so a broadcast is never
+     * taken async without a way to finish it
+     */
+    private static synchronized boolean initGoAsync() {
+        if (sGoAsync == null && Build.VERSION.SDK_INT >= 11) {
+            try {
+                Method goAsync = BroadcastReceiver.class.getMethod("goAsync");
+                sFinish = goAsync.getReturnType().getMethod("finish");
+                sGoAsync = goAsync;
+            }
+            catch (Exception e) {
+                Log.w(TAG, "goAsync not available.", e);
+            }
+        }
+
+        return sGoAsync != null;
+    }
+
+    private static synchronized void acquireWakeLock(Context context) {
+        if (sWakeLock == null) {
+            PowerManager pm = (PowerManager) context.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+            sWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        }
+        sWakeLock.acquire();
+    }
+
+    private static synchronized void releaseWakeLock() {
+        if (sWakeLock != null && sWakeLock.isHeld()) {
+            sWakeLock.release();
+        }
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+
+        return sHandler;
+    }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2009 Mike Partridge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.roozen.SoundManagerv2.utils;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import com.roozen.SoundManagerv2.R;
+import com.roozen.SoundManagerv2.provider.ScheduleProvider;
+import com.roozen.SoundManagerv2.receivers.SoundTimer;
+import com.roozen.SoundManagerv2.schedule.ScheduleTimeline;
+
+/**
+ * Keeps exactly one alarm armed with the AlarmManager, for the earliest
+ * upcoming transition across all active schedules
+ *
+ * @author Mike Partridge
+ */
+public class AlarmScheduler {
+
+    public static final String ACTION_TRANSITION = "com.roozen.SoundManagerv2.intent.TRANSITION";
+    public static final String EXTRA_SCHEDULE_IDS = "scheduleIds";
+    public static final String EXTRA_TRIGGER_AT = "triggerAt";
+
+    /**
+     * Loads all active schedules and arms the alarm for the first transition
+     * after the given time, replacing any alarm armed earlier; a transition in
+     * the given time's own minute counts too, unless it has been applied
+     *
+     * @param context
+     * @param after time in millis
+     */
+    public static void rearm(Context context, long after) {
+        long generation = ScheduleProvider.getGeneration(context);
+        ScheduleTimeline timeline = ScheduleTimeline.getInstance(context);
+        
+        setArmedGeneration(context, generation);
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        if (timeline.isEmpty()) {
+            PendingIntent pi = getPendingIntent(context, new int[0], 0);
+            alarmManager.cancel(pi);
+            pi.cancel();
+            return;
+        }
+
+        Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault());
+        cal.setTimeInMillis(after);
+        int today = cal.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+        int minuteOfWeek = ScheduleTimeline.getMinuteOfWeek(cal);
+
+        /*
+         * a schedule due this very minute, say one saved a few seconds after
+         * its start time, still needs the alarm; it fires straight away
+         */
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        int searchFrom = minuteOfWeek;
+        if (getAppliedThrough(context) < cal.getTimeInMillis()) {
+            searchFrom = minuteOfWeek - 1;
+        }
+
+        /*
+         * jump straight to the day of the next transition, skipping any days
+         * that have nothing scheduled
+         */
+        int nextMinute = timeline.getNextTransition(searchFrom);
+        int days = (nextMinute / ScheduleTimeline.MINUTES_PER_DAY) - today;
+        if (nextMinute <= searchFrom) {
+            //wrapped around to next week
+            days += 7;
+        }
+        cal.add(Calendar.DAY_OF_YEAR, days);
+
+        int minuteOfDay = nextMinute % ScheduleTimeline.MINUTES_PER_DAY;
+        cal.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+        cal.set(Calendar.MINUTE, minuteOfDay % 60);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 200);
+
+        long triggerAt = cal.getTimeInMillis();
+        PendingIntent pi = getPendingIntent(context, timeline.getScheduleIds(nextMinute), triggerAt);
+
+        alarmManager.set(AlarmManager.RTC_WAKEUP, triggerAt, pi);
+    }
+
+    /**
+     * Convenience for {@link #rearm(Context, long)} from the current time
+     *
+     * @param context
+     */
+    public static void rearm(Context context) {
+        rearm(context, System.currentTimeMillis());
+    }
+
+    /**
+     * Re-arms from the current time, unless the alarm was armed from the
+     * schedules as they are now and is still pending
+     * 
+     * @param context
+     * @return true if the alarm was re-armed
+     */
+    public static boolean rearmIfChanged(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Util.PREFS_NAME, Context.MODE_PRIVATE);
+        long armed = prefs.getLong(context.getString(R.string.ArmedGeneration), -1);
+        
+        /*
+         * the one-shot PendingIntent is gone once the alarm has fired, and 
+         * after a reboot or a force stop cleared it
+         */
+        if (armed >= 0 && armed == ScheduleProvider.getGeneration(context) && isArmed(context)) {
+            return false;
+        }
+        
+        rearm(context);
+        return true;
+    }
+    
+    /*
+     * remembers which generation of the schedules the alarm was armed from
+     */
+    private static void setArmedGeneration(Context context, long generation) {
+        SharedPreferences prefs = context.getSharedPreferences(Util.PREFS_NAME, Context.MODE_PRIVATE);
+        String armedPref = context.getString(R.string.ArmedGeneration);
+        
+        if (prefs.getLong(armedPref, -1) != generation) {
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putLong(armedPref, generation);
+            editor.commit();
+        }
+    }
+    
+    /**
+     * Remembers that the transitions up to the given time have been applied, 
+     * so re-arming doesn't fire for them again
+     * 
+     * @param context
+     * @param millis
+     */
+    public static void setAppliedThrough(Context context, long millis) {
+        SharedPreferences prefs = context.getSharedPreferences(Util.PREFS_NAME, Context.MODE_PRIVATE);
+        String appliedPref = context.getString(R.string.AppliedThrough);
+        
+        if (prefs.getLong(appliedPref, 0) < millis) {
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putLong(appliedPref, millis);
+            editor.commit();
+        }
+    }
+    
+    private static long getAppliedThrough(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Util.PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getLong(context.getString(R.string.AppliedThrough), 0);
+    }
+    
+    /**
+     * Counts the schedules of one alarm fire, either applied or discarded because
+     * the schedule was inactive or not set for today; every schedule past the
+     * first is a wakeup saved by sharing the alarm
+     * 
+     * @param context
+     * @param applied
+     * @param discarded
+     */
+    public static void recordBatch(Context context, int applied, int discarded) {
+        SharedPreferences prefs = context.getSharedPreferences(Util.PREFS_NAME, Context.MODE_PRIVATE);
+        String appliedPref = context.getString(R.string.FiresApplied);
+        String discardedPref = context.getString(R.string.FiresDiscarded);
+        String mergedPref = context.getString(R.string.WakeupsMerged);
+        
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(appliedPref, prefs.getInt(appliedPref, 0) + applied);
+        editor.putInt(discardedPref, prefs.getInt(discardedPref, 0) + discarded);
+        if (applied + discarded > 1) {
+            editor.putInt(mergedPref, prefs.getInt(mergedPref, 0) + applied + discarded - 1);
+        }
+        editor.commit();
+    }
+    
+    /**
+     * @param context
+     * @return number of schedule fires that changed settings
+     */
+    public static int getFiresApplied(Context context) {
+        return Util.getIntPref(context, context.getString(R.string.FiresApplied), 0);
+    }
+    
+    /**
+     * @param context
+     * @return number of schedule fires that were thrown away
+     */
+    public static int getFiresDiscarded(Context context) {
+        return Util.getIntPref(context, context.getString(R.string.FiresDiscarded), 0);
+    }
+
+    /**
+     * @param context
+     * @return number of wakeups saved by applying same-minute schedules together
+     */
+    public static int getWakeupsMerged(Context context) {
+        return Util.getIntPref(context, context.getString(R.string.WakeupsMerged), 0);
+    }
+
+    /*
+     * there's only ever one of these; the action without data makes every
+     * call resolve to the same PendingIntent so it replaces the previous alarm.
+     * It's one-shot, so it only exists while the alarm is pending
+     */
+    private static PendingIntent getPendingIntent(Context context, int[] scheduleIds, long triggerAt) {
+        Intent scheduleIntent = new Intent(context, SoundTimer.class);
+        scheduleIntent.setAction(ACTION_TRANSITION);
+        scheduleIntent.putExtra(EXTRA_SCHEDULE_IDS, scheduleIds);
+        scheduleIntent.putExtra(EXTRA_TRIGGER_AT, triggerAt);
+
+        return PendingIntent.getBroadcast(context, 0, scheduleIntent, 
+                                          PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_ONE_SHOT);
+    }
+
+    /*
+     * looked up with the same flags the alarm's PendingIntent was made with
+     */
+    private static boolean isArmed(Context context) {
+        Intent scheduleIntent = new Intent(context, SoundTimer.class);
+        scheduleIntent.setAction(ACTION_TRANSITION);
+
+        return PendingIntent.getBroadcast(context, 0, scheduleIntent, 
+                                          PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_ONE_SHOT) != null;
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2009 Daniel Roozen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.roozen.SoundManagerv2.utils;
+
+import android.content.Context;
+import android.media.AudioManager;
+
+import com.roozen.SoundManagerv2.schedule.ScheduleTimeline;
+
+/**
+ * Collects the target ringer mode, stream volumes and vibrate settings,
+ * then applies them comparing against the current state so the
+ * AudioManager is only told about what actually changes
+ *
+ * @author droozen
+ */
+public class AudioStateWriter {
+
+    private static final int UNSET = -1;
+
+    //flags used for a volume that really changes
+    private static final int VOLUME_FLAGS = AudioManager.FLAG_PLAY_SOUND
+                                            | AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE
+                                            | AudioManager.FLAG_SHOW_UI
+                                            | AudioManager.FLAG_VIBRATE;
+
+    private final AudioManager mAudio;
+
+    private int mRingerMode = UNSET;
+    private final int[] mVolumes = new int[ScheduleTimeline.STREAM_COUNT];
+
+    //indexed by VIBRATE_TYPE_RINGER and VIBRATE_TYPE_NOTIFICATION
+    private final int[] mVibrateSettings = new int[2];
+
+    private int mIssuedCalls;
+    private int mSkippedCalls;
+
+    /**
+     * @param context
+     */
+    public AudioStateWriter(Context context) {
+        mAudio = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        clear();
+    }
+
+    /**
+     * Forget all targets so the writer can be reused
+     */
+    public void clear() {
+        mRingerMode = UNSET;
+        for (int i = 0; i < mVolumes.length; i++) {
+            mVolumes[i] = UNSET;
+        }
+        for (int i = 0; i < mVibrateSettings.length; i++) {
+            mVibrateSettings[i] = UNSET;
+        }
+    }
+
+    /**
+     * @param ringerMode one of the AudioManager.RINGER_MODE_ values
+     */
+    public void setRingerMode(int ringerMode) {
+        mRingerMode = ringerMode;
+    }
+
+    /**
+     * @param stream
+     * @param volume clamped to the stream's range when applied
+     */
+    public void setVolume(int stream, int volume) {
+        if (stream >= 0 && stream < mVolumes.length) {
+            mVolumes[stream] = volume < 0 ? 0 : volume;
+        }
+    }
+
+    /**
+     * @param vibrateType AudioManager.VIBRATE_TYPE_RINGER or VIBRATE_TYPE_NOTIFICATION
+     * @param vibrate
+     */
+    public void setVibrate(int vibrateType, boolean vibrate) {
+        if (vibrateType >= 0 && vibrateType < mVibrateSettings.length) {
+            mVibrateSettings[vibrateType] = vibrate ? AudioManager.VIBRATE_SETTING_ON
+                                                    : AudioManager.VIBRATE_SETTING_OFF;
+        }
+    }
+
+    /**
+     * Applies every target that differs from the current state, then clears the targets
+     *
+     * @return number of calls skipped because the setting was already in place
+     */
+    public int apply() {
+        int skipped = 0;
+
+        /*
+         * ringer mode first; leaving silent mode restores the stream volumes,
+         * so they have to be read after it
+         */
+        if (mRingerMode != UNSET) {
+            if (mAudio.getRingerMode() != mRingerMode) {
+                mAudio.setRingerMode(mRingerMode);
+                mIssuedCalls++;
+            }
+            else {
+                skipped++;
+            }
+        }
+
+        for (int stream = 0; stream < mVolumes.length; stream++) {
+            if (mVolumes[stream] != UNSET) {
+                int volume = Math.min(mVolumes[stream], mAudio.getStreamMaxVolume(stream));
+
+                if (mAudio.getStreamVolume(stream) != volume) {
+                    mAudio.setStreamVolume(stream, volume, VOLUME_FLAGS);
+                    mIssuedCalls++;
+                }
+                else {
+                    skipped++;
+                }
+            }
+        }
+
+        for (int type = 0; type < mVibrateSettings.length; type++) {
+            if (mVibrateSettings[type] != UNSET) {
+                if (mAudio.getVibrateSetting(type) != mVibrateSettings[type]) {
+                    mAudio.setVibrateSetting(type, mVibrateSettings[type]);
+                    mIssuedCalls++;
+                }
+                else {
+                    skipped++;
+                }
+            }
+        }
+
+        mSkippedCalls += skipped;
+        clear();
+
+        return skipped;
+    }
+
+    /**
+     * @return total mutating calls made by this writer
+     */
+    public int getIssuedCalls() {
+        return mIssuedCalls;
+    }
+
+    /**
+     * @return total mutating calls this writer left out
+     */
+    public int getSkippedCalls() {
+        return mSkippedCalls;
+    }
+
+}
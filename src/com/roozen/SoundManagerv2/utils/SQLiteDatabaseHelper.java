@@ -1,5 +1,9 @@
 package com.roozen.SoundManagerv2.utils;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.ContentValues;
@@ -10,10 +14,12 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.media.AudioManager;
+import android.os.Build;
 import android.util.Log;
 
 import com.roozen.SoundManagerv2.R;
 import com.roozen.SoundManagerv2.receivers.SoundTimer;
+import com.roozen.SoundManagerv2.schedule.Schedule;
 import com.roozen.SoundManagerv2.services.BootupService;
 
 /**
@@ -23,7 +29,7 @@ import com.roozen.SoundManagerv2.services.BootupService;
 public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "data";
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 8;
     private Context mContext;
 
     /*
@@ -61,14 +67,37 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
     public static final String SCHEDULE_VOLUME = "_volume";
     public static final String SCHEDULE_VIBRATE = "_vibrate";
     public static final String SCHEDULE_ACTIVE = "_active_fg";
+    public static final String SCHEDULE_DAYS = "_days";
+    public static final String SCHEDULE_SORT_KEY = "_sort_key";
+    
+    /*
+     * day columns replaced by the SCHEDULE_DAYS bitmask in db v5; 
+     * the provider still answers to them for reads
+     */
+    @Deprecated
     public static final String SCHEDULE_DAY0 = "_day0";
+    @Deprecated
     public static final String SCHEDULE_DAY1 = "_day1";
+    @Deprecated
     public static final String SCHEDULE_DAY2 = "_day2";
+    @Deprecated
     public static final String SCHEDULE_DAY3 = "_day3";
+    @Deprecated
     public static final String SCHEDULE_DAY4 = "_day4";
+    @Deprecated
     public static final String SCHEDULE_DAY5 = "_day5";
+    @Deprecated
     public static final String SCHEDULE_DAY6 = "_day6";
     
+    /**
+     * old day columns in day order, Sunday first; bit n of SCHEDULE_DAYS holds day n
+     */
+    @Deprecated
+    public static final String[] SCHEDULE_DAY_COLUMNS = {
+        SCHEDULE_DAY0, SCHEDULE_DAY1, SCHEDULE_DAY2, SCHEDULE_DAY3, 
+        SCHEDULE_DAY4, SCHEDULE_DAY5, SCHEDULE_DAY6
+    };
+    
     private static final String SCHEDULE_TABLE_CREATE = 
         "create table "
             + SCHEDULE_TABLE + " (" 
@@ -79,26 +108,110 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
             + SCHEDULE_VOLUME + " integer not null default 0, "
             + SCHEDULE_VIBRATE + " integer not null default 0, "
             + SCHEDULE_ACTIVE + " integer not null default 1, "
-            + SCHEDULE_DAY0 + " integer not null default 0, "
-            + SCHEDULE_DAY1 + " integer not null default 0, "
-            + SCHEDULE_DAY2 + " integer not null default 0, "
-            + SCHEDULE_DAY3 + " integer not null default 0, "
-            + SCHEDULE_DAY4 + " integer not null default 0, "
-            + SCHEDULE_DAY5 + " integer not null default 0, "
-            + SCHEDULE_DAY6 + " integer not null default 0 "
+            + SCHEDULE_DAYS + " integer not null default 0, "
+            + SCHEDULE_SORT_KEY + " integer not null default 0 "
             +");";
     
-    public static final String SCHEDULE_DEFAULT_ORDER = 
-        SCHEDULE_DAY0 + " desc, " 
-        + SCHEDULE_DAY1 + " desc, "
-        + SCHEDULE_DAY2 + " desc, "
-        + SCHEDULE_DAY3 + " desc, "
-        + SCHEDULE_DAY4 + " desc, "
-        + SCHEDULE_DAY5 + " desc, "
-        + SCHEDULE_DAY6 + " desc, "
-        + SCHEDULE_START_HOUR + ","
-        + SCHEDULE_START_MINUTE + ","
-        + SCHEDULE_ID;
+    static final String SCHEDULE_DAYS_INDEX_NAME = SCHEDULE_TABLE + "_days_idx";
+    private static final String SCHEDULE_DAYS_INDEX_CREATE =
+        "create index " + SCHEDULE_DAYS_INDEX_NAME + " on " + SCHEDULE_TABLE + " (" + SCHEDULE_DAYS + ");";
+    
+    /*
+     * schedule lists by type come straight out of this index in display order,
+     * _id breaking ties, and each page seeks to the sort key and _id it follows
+     */
+    static final String SCHEDULE_TYPE_INDEX_NAME = SCHEDULE_TABLE + "_type_sort_idx";
+    private static final String SCHEDULE_TYPE_INDEX_CREATE =
+        "create index " + SCHEDULE_TYPE_INDEX_NAME + " on " + SCHEDULE_TABLE 
+        + " (" + SCHEDULE_TYPE + ", " + SCHEDULE_SORT_KEY + ", " + SCHEDULE_ID + ");";
+    
+    /*
+     * active schedules by type, for the timeline and the active counts
+     */
+    static final String SCHEDULE_ACTIVE_INDEX_NAME = SCHEDULE_TABLE + "_active_type_idx";
+    private static final String SCHEDULE_ACTIVE_INDEX_CREATE =
+        "create index " + SCHEDULE_ACTIVE_INDEX_NAME + " on " + SCHEDULE_TABLE 
+        + " (" + SCHEDULE_ACTIVE + ", " + SCHEDULE_TYPE + ");";
+    
+    /*
+     * SQL for Schedule.getSortKey() over the row's own columns: 
+     * days set earlier in the week sort first, then time of day
+     */
+    private static final String SCHEDULE_SORT_KEY_EXPRESSION;
+    static {
+        StringBuilder missingDays = new StringBuilder();
+        for (int day = 0; day < 7; day++) {
+            if (day > 0) {
+                missingDays.append(" | ");
+            }
+            missingDays.append("((1 - ((").append(SCHEDULE_DAYS).append(" >> ").append(day)
+                       .append(") & 1)) << ").append(6 - day).append(")");
+        }
+        
+        SCHEDULE_SORT_KEY_EXPRESSION = "((" + missingDays + ") * 1440 + " 
+                                       + SCHEDULE_START_HOUR + " * 60 + " + SCHEDULE_START_MINUTE + ")";
+    }
+    
+    /*
+     * keep the sort key current whatever the provider writes
+     */
+    private static final String SCHEDULE_SORT_KEY_INSERT_TRIGGER_CREATE =
+        "create trigger " + SCHEDULE_TABLE + "_sort_key_insert after insert on " + SCHEDULE_TABLE 
+        + " begin update " + SCHEDULE_TABLE + " set " + SCHEDULE_SORT_KEY + " = " + SCHEDULE_SORT_KEY_EXPRESSION
+        + " where " + SCHEDULE_ID + " = new." + SCHEDULE_ID + "; end;";
+    
+    private static final String SCHEDULE_SORT_KEY_UPDATE_TRIGGER_CREATE =
+        "create trigger " + SCHEDULE_TABLE + "_sort_key_update after update of " 
+        + SCHEDULE_DAYS + ", " + SCHEDULE_START_HOUR + ", " + SCHEDULE_START_MINUTE + " on " + SCHEDULE_TABLE 
+        + " begin update " + SCHEDULE_TABLE + " set " + SCHEDULE_SORT_KEY + " = " + SCHEDULE_SORT_KEY_EXPRESSION
+        + " where " + SCHEDULE_ID + " = new." + SCHEDULE_ID + "; end;";
+    
+    /**
+     * a schedule row packed in SQL, same layout as Schedule.pack()
+     */
+    public static final String SCHEDULE_PACKED_EXPRESSION = 
+        "((" + SCHEDULE_ID + " << " + Schedule.PACKED_ID_SHIFT + ")"
+        + " | ((" + SCHEDULE_ACTIVE + " & 1) << " + Schedule.PACKED_ACTIVE_SHIFT + ")"
+        + " | ((" + SCHEDULE_VIBRATE + " & 1) << " + Schedule.PACKED_VIBRATE_SHIFT + ")"
+        + " | ((" + SCHEDULE_VOLUME + " & 255) << " + Schedule.PACKED_VOLUME_SHIFT + ")"
+        + " | ((" + SCHEDULE_TYPE + " & 7) << " + Schedule.PACKED_TYPE_SHIFT + ")"
+        + " | ((" + SCHEDULE_DAYS + " & 127) << " + Schedule.PACKED_DAYS_SHIFT + ")"
+        + " | (" + SCHEDULE_START_HOUR + " * 60 + " + SCHEDULE_START_MINUTE + "))";
+    
+    /*
+     * days set earlier in the week first, then time, as the sort key has it
+     */
+    public static final String SCHEDULE_DEFAULT_ORDER = SCHEDULE_SORT_KEY + "," + SCHEDULE_ID;
+    
+    /*
+     * Generation table: a single row counting changes to the schedules
+     */
+    public static final String GENERATION_TABLE = "generation";
+    public static final String GENERATION_VALUE = "_generation";
+    
+    private static final String GENERATION_TABLE_CREATE =
+        "create table " + GENERATION_TABLE + " (" + GENERATION_VALUE + " integer not null default 0);";
+    
+    private static final String GENERATION_INSERT = 
+        "insert into " + GENERATION_TABLE + " (" + GENERATION_VALUE + ") values (0);";
+    
+    private static final String GENERATION_BUMP = 
+        " begin update " + GENERATION_TABLE + " set " + GENERATION_VALUE + " = " + GENERATION_VALUE + " + 1; end;";
+    
+    /*
+     * bumped by the same statement as the change, so it can't commit without it; 
+     * the sort key trigger's own update leaves it alone
+     */
+    private static final String[] GENERATION_TRIGGERS_CREATE = {
+        "create trigger " + SCHEDULE_TABLE + "_generation_insert after insert on " + SCHEDULE_TABLE 
+            + GENERATION_BUMP,
+        "create trigger " + SCHEDULE_TABLE + "_generation_update after update of " 
+            + SCHEDULE_TYPE + ", " + SCHEDULE_START_HOUR + ", " + SCHEDULE_START_MINUTE + ", "
+            + SCHEDULE_VOLUME + ", " + SCHEDULE_VIBRATE + ", " + SCHEDULE_ACTIVE + ", " + SCHEDULE_DAYS 
+            + " on " + SCHEDULE_TABLE + GENERATION_BUMP,
+        "create trigger " + SCHEDULE_TABLE + "_generation_delete after delete on " + SCHEDULE_TABLE 
+            + GENERATION_BUMP
+    };
     
     public SQLiteDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -110,7 +223,84 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(SCHEDULE_TABLE_CREATE);
+        createScheduleTable(db);
+    }
+    
+    private void createScheduleTable(SQLiteDatabase db) {
+        for (String sql : getScheduleSchema()) {
+            db.execSQL(sql);
+        }
+    }
+    
+    /**
+     * Statements creating the current schedule table, its indexes and triggers,
+     * and the generation counter, in order; the tests build their dbs from it too
+     * 
+     * @return SQL statements
+     */
+    static String[] getScheduleSchema() {
+        ArrayList<String> schema = new ArrayList<String>();
+        
+        schema.add(SCHEDULE_TABLE_CREATE);
+        schema.add(SCHEDULE_DAYS_INDEX_CREATE);
+        schema.add(SCHEDULE_SORT_KEY_INSERT_TRIGGER_CREATE);
+        schema.add(SCHEDULE_SORT_KEY_UPDATE_TRIGGER_CREATE);
+        schema.add(SCHEDULE_TYPE_INDEX_CREATE);
+        schema.add(SCHEDULE_ACTIVE_INDEX_CREATE);
+        schema.add(GENERATION_TABLE_CREATE);
+        schema.add(GENERATION_INSERT);
+        schema.addAll(Arrays.asList(GENERATION_TRIGGERS_CREATE));
+        
+        return schema.toArray(new String[schema.size()]);
+    }
+    
+    private void createSortKey(SQLiteDatabase db) {
+        db.execSQL(SCHEDULE_SORT_KEY_INSERT_TRIGGER_CREATE);
+        db.execSQL(SCHEDULE_SORT_KEY_UPDATE_TRIGGER_CREATE);
+        db.execSQL(SCHEDULE_TYPE_INDEX_CREATE);
+    }
+    
+    private void createGeneration(SQLiteDatabase db) {
+        db.execSQL(GENERATION_TABLE_CREATE);
+        db.execSQL(GENERATION_INSERT);
+        for (String trigger : GENERATION_TRIGGERS_CREATE) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see android.database.sqlite.SQLiteOpenHelper#onOpen(android.database.sqlite.SQLiteDatabase)
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        
+        if (!db.isReadOnly()) {
+            enableWriteAheadLogging(db);
+        }
+    }
+    
+    /*
+     * with write-ahead logging, readers carry on while BootupService or
+     * ChangeVolume write, instead of waiting on the rollback journal's lock;
+     * it only exists from API 11, so it's looked up when running there
+     */
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < 11) {
+            return;
+        }
+        
+        try {
+            Method enable = SQLiteDatabase.class.getMethod("enableWriteAheadLogging");
+            Boolean enabled = (Boolean) enable.invoke(db);
+            
+            if (!enabled.booleanValue()) {
+                Log.w(SQLiteDatabaseHelper.class.toString(), "Write-ahead logging not available.");
+            }
+        }
+        catch (Exception e) {
+            Log.w(SQLiteDatabaseHelper.class.toString(), "Could not enable write-ahead logging.", e);
+        }
     }
 
     /* (non-Javadoc)
@@ -123,8 +313,24 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
                 + newVersion + ".");
         
         if (oldVersion < 3) {
+            //creates the current schedule table directly
             upgradeTo3(db);
         }
+        else if (oldVersion < 5) {
+            //rebuilds into the current schedule table
+            upgradeTo5(db);
+        }
+        else {
+            if (oldVersion < 6) {
+                upgradeTo6(db);
+            }
+            if (oldVersion < 7) {
+                upgradeTo7(db);
+            }
+            if (oldVersion < 8) {
+                upgradeTo8(db);
+            }
+        }
         
         if (newVersion > 2) {
             /*
@@ -146,7 +352,7 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
         AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
         alarmManager.cancel(PendingIntent.getBroadcast(mContext, 0, new Intent(soundTimer), 0));
         
-        db.execSQL(SCHEDULE_TABLE_CREATE);
+        createScheduleTable(db);
         
         //copy the system timer
         if (getBooleanPref(db, mContext.getString(R.string.EnableSystem))) {
@@ -214,6 +420,100 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("drop table "+PREFERENCE_TABLE);
     }
     
+    /**
+     * Packs the seven day columns into the SCHEDULE_DAYS bitmask; SQLite can't
+     * drop columns, so the table is rebuilt and the rows copied across
+     * 
+     * @param db
+     */
+    private void upgradeTo5(SQLiteDatabase db) {
+        String oldTable = SCHEDULE_TABLE + "_v4";
+        
+        StringBuilder days = new StringBuilder();
+        for (int day = 0; day < SCHEDULE_DAY_COLUMNS.length; day++) {
+            if (day > 0) {
+                days.append(" | ");
+            }
+            days.append("(case when ").append(SCHEDULE_DAY_COLUMNS[day])
+                .append(" > 0 then ").append(1 << day).append(" else 0 end)");
+        }
+        
+        String columns = SCHEDULE_ID + ", " + SCHEDULE_TYPE + ", " 
+                         + SCHEDULE_START_HOUR + ", " + SCHEDULE_START_MINUTE + ", "
+                         + SCHEDULE_VOLUME + ", " + SCHEDULE_VIBRATE + ", " + SCHEDULE_ACTIVE;
+        
+        db.beginTransaction();
+        try {
+            db.execSQL("alter table " + SCHEDULE_TABLE + " rename to " + oldTable + ";");
+            createScheduleTable(db);
+            db.execSQL("insert into " + SCHEDULE_TABLE + " (" + columns + ", " + SCHEDULE_DAYS + ") "
+                       + "select " + columns + ", " + days + " from " + oldTable + ";");
+            db.execSQL("drop table " + oldTable + ";");
+            
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+    
+    /**
+     * Adds the maintained sort key and the indexes behind the schedule queries
+     * 
+     * @param db
+     */
+    private void upgradeTo6(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("alter table " + SCHEDULE_TABLE + " add column " 
+                       + SCHEDULE_SORT_KEY + " integer not null default 0;");
+            db.execSQL("update " + SCHEDULE_TABLE + " set " + SCHEDULE_SORT_KEY + " = " 
+                       + SCHEDULE_SORT_KEY_EXPRESSION + ";");
+            createSortKey(db);
+            db.execSQL(SCHEDULE_ACTIVE_INDEX_CREATE);
+            
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+    
+    /**
+     * Adds the generation counter of the schedules
+     * 
+     * @param db
+     */
+    private void upgradeTo7(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            createGeneration(db);
+            
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+    
+    /**
+     * Rebuilds the list index with the _id tie-breaker in its key
+     * 
+     * @param db
+     */
+    private void upgradeTo8(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("drop index if exists " + SCHEDULE_TYPE_INDEX_NAME + ";");
+            db.execSQL(SCHEDULE_TYPE_INDEX_CREATE);
+            
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+    
     /**
      * Get a string from the old preferences table; 
      * it's removed with db v3, so this method is deprecated
@@ -287,13 +587,7 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
         
         ContentValues values = new ContentValues();
 
-        values.put(SCHEDULE_DAY0, "1");
-        values.put(SCHEDULE_DAY1, "1");
-        values.put(SCHEDULE_DAY2, "1");
-        values.put(SCHEDULE_DAY3, "1");
-        values.put(SCHEDULE_DAY4, "1");
-        values.put(SCHEDULE_DAY5, "1");
-        values.put(SCHEDULE_DAY6, "1");
+        values.put(SCHEDULE_DAYS, Schedule.ALL_DAYS);
         values.put(SCHEDULE_START_HOUR, Integer.parseInt(timeStart.substring(0, timeStart.indexOf(":"))));
         values.put(SCHEDULE_START_MINUTE, Integer.parseInt(timeStart.substring(timeStart.indexOf(":") + 1)));
         values.put(SCHEDULE_VOLUME, volume);
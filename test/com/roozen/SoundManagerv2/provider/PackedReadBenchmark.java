@@ -0,0 +1,126 @@
+package com.roozen.SoundManagerv2.provider;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.roozen.SoundManagerv2.schedule.Schedule;
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+import com.roozen.SoundManagerv2.utils.ScheduleTestDatabase;
+
+/**
+ * Times the packed reads the scheduler uses, one schedule by id and every
+ * active schedule, with the helper's packed SQL expression against reading
+ * the schedule columns and packing them in Java, as it did before the
+ * packed URIs; see test/README
+ *
+ * @author Mike Partridge
+ */
+public class PackedReadBenchmark {
+
+    private static final int SCHEDULES = 500;
+    private static final int ROW_CALLS = 20000;
+    private static final int ACTIVE_CALLS = 500;
+
+    private static final String COLUMNS = 
+        SQLiteDatabaseHelper.SCHEDULE_ID + ", " + SQLiteDatabaseHelper.SCHEDULE_DAYS + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", " + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", " + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VIBRATE + ", " + SQLiteDatabaseHelper.SCHEDULE_ACTIVE;
+
+    private static final String FROM = " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE + " where ";
+    private static final String BY_ID = SQLiteDatabaseHelper.SCHEDULE_ID + "=?";
+    private static final String ACTIVE = SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1 order by " 
+                                         + SQLiteDatabaseHelper.SCHEDULE_ID;
+
+    public static void main(String[] args) throws Exception {
+        Connection c = ScheduleTestDatabase.open(ScheduleTestDatabase.newUrl());
+        ScheduleTestDatabase.create(c);
+        ScheduleTestDatabase.seed(c, SCHEDULES, 42);
+
+        PreparedStatement packedRow = c.prepareStatement("select " + SQLiteDatabaseHelper.SCHEDULE_PACKED_EXPRESSION 
+                                                         + FROM + BY_ID);
+        PreparedStatement columnsRow = c.prepareStatement("select " + COLUMNS + FROM + BY_ID);
+        PreparedStatement packedActive = c.prepareStatement("select " + SQLiteDatabaseHelper.SCHEDULE_PACKED_EXPRESSION 
+                                                            + FROM + ACTIVE);
+        PreparedStatement columnsActive = c.prepareStatement("select " + COLUMNS + FROM + ACTIVE);
+
+        check(packedActive, columnsActive);
+
+        //twice, the first round warming up the JIT
+        for (int round = 0; round < 2; round++) {
+            System.out.printf("one schedule: packed %.1fus, columns %.1fus per read%n", 
+                              time(packedRow, true, ROW_CALLS, true), time(columnsRow, false, ROW_CALLS, true));
+            System.out.printf("active schedules: packed %.1fus, columns %.1fus per read%n", 
+                              time(packedActive, true, ACTIVE_CALLS, false), 
+                              time(columnsActive, false, ACTIVE_CALLS, false));
+        }
+
+        c.close();
+    }
+
+    /*
+     * micros per read of every row the statement returns
+     */
+    private static double time(PreparedStatement st, boolean packed, int calls, boolean byId) 
+            throws SQLException {
+        Random random = new Random(1);
+        long sum = 0;
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            if (byId) {
+                st.setInt(1, 1 + random.nextInt(SCHEDULES));
+            }
+            for (long schedule : read(st, packed)) {
+                sum += schedule;
+            }
+        }
+        long nanos = System.nanoTime() - startedAt;
+
+        return sum == 0 ? 0 : nanos / 1000.0 / calls;
+    }
+
+    private static long[] read(PreparedStatement st, boolean packed) throws SQLException {
+        long[] schedules = new long[16];
+        int size = 0;
+
+        ResultSet rs = st.executeQuery();
+        while (rs.next()) {
+            if (size == schedules.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(schedules, 0, grown, 0, size);
+                schedules = grown;
+            }
+
+            if (packed) {
+                schedules[size++] = rs.getLong(1);
+            }
+            else {
+                schedules[size++] = Schedule.pack(rs.getInt(1), (byte) rs.getInt(2), rs.getInt(3), rs.getInt(4),
+                                                  rs.getInt(5), rs.getInt(6), rs.getInt(7) > 0, rs.getInt(8) > 0);
+            }
+        }
+        rs.close();
+
+        long[] result = new long[size];
+        System.arraycopy(schedules, 0, result, 0, size);
+        return result;
+    }
+
+    /*
+     * the two reads have to agree before their times mean anything
+     */
+    private static void check(PreparedStatement packed, PreparedStatement columns) throws SQLException {
+        long[] fromSql = read(packed, true);
+        long[] fromColumns = read(columns, false);
+
+        if (!Arrays.equals(fromSql, fromColumns)) {
+            throw new IllegalStateException("packed expression doesn't match Schedule.pack()");
+        }
+    }
+
+}
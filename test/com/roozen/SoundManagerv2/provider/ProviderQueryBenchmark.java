@@ -0,0 +1,148 @@
+package com.roozen.SoundManagerv2.provider;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Random;
+
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+import com.roozen.SoundManagerv2.utils.ScheduleTestDatabase;
+
+/**
+ * Per-call cost of the provider's row and type queries with the argument
+ * spliced into the SQL, so every call compiles a new statement, against one
+ * compiled statement with the argument bound, the way SQLiteDatabase's
+ * statement cache reuses SQL text that doesn't change; and of the old chain
+ * of mime type compares against the lookup table. See test/README
+ *
+ * @author Mike Partridge
+ */
+public class ProviderQueryBenchmark {
+
+    private static final int SCHEDULES = 500;
+    private static final int CALLS = 20000;
+
+    private static final String COLUMNS = 
+        SQLiteDatabaseHelper.SCHEDULE_ID + ", " + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", " + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", " + SQLiteDatabaseHelper.SCHEDULE_VIBRATE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + ", " + SQLiteDatabaseHelper.SCHEDULE_DAYS;
+
+    private static final String ROW_QUERY = "select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                                            + " where " + SQLiteDatabaseHelper.SCHEDULE_ID + "=";
+
+    private static final String TYPE_QUERY = "select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                                             + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=";
+
+    private static final String TYPE_ORDER = " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER;
+
+    private static final String[] MIME_TYPES = {
+        ScheduleProvider.MIME_SYSTEM, ScheduleProvider.MIME_RINGER, ScheduleProvider.MIME_NOTIF,
+        ScheduleProvider.MIME_MEDIA, ScheduleProvider.MIME_ALARM, ScheduleProvider.MIME_INCALL
+    };
+
+    private static final HashMap<String, Integer> sVolumeTypes = new HashMap<String, Integer>();
+    static {
+        for (int type = 0; type < MIME_TYPES.length; type++) {
+            sVolumeTypes.put(MIME_TYPES[type], type);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Connection c = ScheduleTestDatabase.open(ScheduleTestDatabase.newUrl());
+        ScheduleTestDatabase.create(c);
+        ScheduleTestDatabase.seed(c, SCHEDULES, 42);
+
+        //twice, the first round warming up the JIT
+        for (int round = 0; round < 2; round++) {
+            System.out.printf("row by id: spliced %.1fus, bound %.1fus per call%n", 
+                              spliced(c, ROW_QUERY, "", SCHEDULES), bound(c, ROW_QUERY + "?", SCHEDULES));
+            System.out.printf("type list: spliced %.1fus, bound %.1fus per call%n", 
+                              spliced(c, TYPE_QUERY, TYPE_ORDER, ScheduleTestDatabase.TYPES), 
+                              bound(c, TYPE_QUERY + "?" + TYPE_ORDER, ScheduleTestDatabase.TYPES));
+            System.out.printf("mime type: compares %.1fns, table %.1fns per call%n", compares(), table());
+        }
+
+        c.close();
+    }
+
+    /*
+     * micros per call, compiling each call's own SQL text
+     */
+    private static double spliced(Connection c, String sql, String suffix, int bound) throws SQLException {
+        Random random = new Random(1);
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            PreparedStatement st = c.prepareStatement(sql + (1 + random.nextInt(bound)) + suffix);
+            drain(st.executeQuery());
+            st.close();
+        }
+        return (System.nanoTime() - startedAt) / 1000.0 / CALLS;
+    }
+
+    /*
+     * micros per call, binding the argument to one compiled statement
+     */
+    private static double bound(Connection c, String sql, int bound) throws SQLException {
+        Random random = new Random(1);
+
+        long startedAt = System.nanoTime();
+        PreparedStatement st = c.prepareStatement(sql);
+        for (int i = 0; i < CALLS; i++) {
+            st.setInt(1, 1 + random.nextInt(bound));
+            drain(st.executeQuery());
+        }
+        st.close();
+        return (System.nanoTime() - startedAt) / 1000.0 / CALLS;
+    }
+
+    private static void drain(ResultSet rs) throws SQLException {
+        while (rs.next()) {
+            rs.getInt(1);
+        }
+        rs.close();
+    }
+
+    /*
+     * nanos per lookup, as getVolumeType() walked the mime types before
+     */
+    private static double compares() {
+        int sum = 0;
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < CALLS * 10; i++) {
+            String mimeType = MIME_TYPES[i % MIME_TYPES.length];
+            int volumeType = 0;
+            for (int type = 0; type < MIME_TYPES.length; type++) {
+                if (mimeType.equals(MIME_TYPES[type])) {
+                    volumeType = type;
+                    break;
+                }
+            }
+            sum += volumeType;
+        }
+        long nanos = System.nanoTime() - startedAt;
+
+        return sum < 0 ? 0 : (double) nanos / (CALLS * 10);
+    }
+
+    /*
+     * nanos per lookup in the table getVolumeType() uses now
+     */
+    private static double table() {
+        int sum = 0;
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < CALLS * 10; i++) {
+            Integer volumeType = sVolumeTypes.get(MIME_TYPES[i % MIME_TYPES.length]);
+            sum += volumeType != null ? volumeType.intValue() : 0;
+        }
+        long nanos = System.nanoTime() - startedAt;
+
+        return sum < 0 ? 0 : (double) nanos / (CALLS * 10);
+    }
+
+}
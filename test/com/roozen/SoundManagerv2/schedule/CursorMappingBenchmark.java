@@ -0,0 +1,145 @@
+package com.roozen.SoundManagerv2.schedule;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+import com.roozen.SoundManagerv2.utils.ScheduleTestDatabase;
+
+/**
+ * Maps a 10,000 row result of schedule columns to packed schedules, looking
+ * each column up by name on every row as the readers did before ScheduleCursor,
+ * against looking them up once up front as ScheduleCursor does. Lookups by
+ * name scan the column names the way AbstractCursor.getColumnIndex does.
+ * See test/README
+ *
+ * @author Mike Partridge
+ */
+public class CursorMappingBenchmark {
+
+    private static final int SCHEDULES = 10000;
+    private static final int ROUNDS = 20;
+
+    private static final String[] COLUMNS = {
+        SQLiteDatabaseHelper.SCHEDULE_ID, SQLiteDatabaseHelper.SCHEDULE_TYPE,
+        SQLiteDatabaseHelper.SCHEDULE_START_HOUR, SQLiteDatabaseHelper.SCHEDULE_START_MINUTE,
+        SQLiteDatabaseHelper.SCHEDULE_VOLUME, SQLiteDatabaseHelper.SCHEDULE_VIBRATE,
+        SQLiteDatabaseHelper.SCHEDULE_ACTIVE, SQLiteDatabaseHelper.SCHEDULE_DAYS
+    };
+
+    public static void main(String[] args) throws Exception {
+        Connection c = ScheduleTestDatabase.open(ScheduleTestDatabase.newUrl());
+        ScheduleTestDatabase.create(c);
+        ScheduleTestDatabase.seed(c, SCHEDULES, 42);
+
+        StringBuilder sql = new StringBuilder("select ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(COLUMNS[i]);
+        }
+        sql.append(" from ").append(SQLiteDatabaseHelper.SCHEDULE_TABLE);
+        PreparedStatement st = c.prepareStatement(sql.toString());
+
+        //twice, the first round warming up the JIT
+        for (int round = 0; round < 2; round++) {
+            long perRow = 0;
+            long once = 0;
+            long scan = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                perRow += time(st, true);
+                once += time(st, false);
+                scan += timeScan(st);
+            }
+
+            System.out.printf("%d rows: indices per row %.2fms, once %.2fms; reading the rows alone %.2fms%n", 
+                              SCHEDULES, perRow / 1e6 / ROUNDS, once / 1e6 / ROUNDS, scan / 1e6 / ROUNDS);
+        }
+
+        st.close();
+        c.close();
+    }
+
+    /*
+     * nanos to map every row
+     */
+    private static long time(PreparedStatement st, boolean perRow) throws SQLException {
+        long sum = 0;
+
+        long startedAt = System.nanoTime();
+        ResultSet rs = st.executeQuery();
+        String[] names = getColumnNames(rs);
+        int[] indices = perRow ? null : getColumnIndices(names);
+        while (rs.next()) {
+            int[] rowIndices = perRow ? getColumnIndices(names) : indices;
+            sum += Schedule.pack(rs.getInt(rowIndices[0]), 
+                                 (byte) rs.getInt(rowIndices[7]), 
+                                 rs.getInt(rowIndices[2]), 
+                                 rs.getInt(rowIndices[3]), 
+                                 rs.getInt(rowIndices[4]), 
+                                 rs.getInt(rowIndices[1]), 
+                                 rs.getInt(rowIndices[5]) > 0, 
+                                 rs.getInt(rowIndices[6]) > 0);
+        }
+        rs.close();
+        long nanos = System.nanoTime() - startedAt;
+
+        return sum == 0 ? 0 : nanos;
+    }
+
+    /*
+     * nanos to step through the rows without mapping them, the floor under both
+     */
+    private static long timeScan(PreparedStatement st) throws SQLException {
+        long sum = 0;
+
+        long startedAt = System.nanoTime();
+        ResultSet rs = st.executeQuery();
+        while (rs.next()) {
+            sum += rs.getInt(1);
+        }
+        rs.close();
+        long nanos = System.nanoTime() - startedAt;
+
+        return sum == 0 ? 0 : nanos;
+    }
+
+    private static String[] getColumnNames(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        String[] names = new String[meta.getColumnCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = meta.getColumnName(i + 1);
+        }
+        return names;
+    }
+
+    /*
+     * JDBC column numbers of COLUMNS, each found by name
+     */
+    private static int[] getColumnIndices(String[] names) {
+        int[] indices = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            indices[i] = getColumnIndex(names, COLUMNS[i]) + 1;
+        }
+        return indices;
+    }
+
+    /*
+     * as AbstractCursor.getColumnIndex: strip any table prefix, then scan
+     */
+    private static int getColumnIndex(String[] names, String name) {
+        int period = name.lastIndexOf('.');
+        if (period != -1) {
+            name = name.substring(period + 1);
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("column '" + name + "' does not exist");
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.roozen.SoundManagerv2.schedule;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import com.roozen.SoundManagerv2.utils.SQLiteDatabaseHelper;
+import com.roozen.SoundManagerv2.utils.ScheduleTestDatabase;
+
+/**
+ * Times what loading ScheduleList does before anything can be drawn, at
+ * growing schedule counts: one type's whole list queried in display order
+ * and mapped into Schedules, as fillData did on the main thread, against
+ * the first page the list now loads and a page picked up by keyset from
+ * the middle of the list. See test/README
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleListBenchmark {
+
+    private static final int[] SCHEDULES = {100, 1000, 10000};
+    private static final int ROUNDS = 200;
+    
+    //as ScheduleList's
+    private static final int PAGE_SIZE = 40;
+
+    private static final String COLUMNS = 
+        SQLiteDatabaseHelper.SCHEDULE_ID + ", " + SQLiteDatabaseHelper.SCHEDULE_DAYS + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", " + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", " + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VIBRATE + ", " + SQLiteDatabaseHelper.SCHEDULE_ACTIVE;
+
+    private static final String LIST_QUERY = 
+        "select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+        + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?"
+        + " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER;
+    
+    private static final String FIRST_PAGE_QUERY = LIST_QUERY + " limit " + PAGE_SIZE;
+    
+    //as ScheduleProvider builds a later page
+    private static final String NEXT_PAGE_QUERY = 
+        "select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+        + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?"
+        + " and (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + ">?"
+        + " or (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + "=? and " + SQLiteDatabaseHelper.SCHEDULE_ID + ">?))"
+        + " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER + " limit " + PAGE_SIZE;
+    
+    //where the middle page picks up
+    private static final String MIDDLE_QUERY = 
+        "select " + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + ", " + SQLiteDatabaseHelper.SCHEDULE_ID 
+        + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+        + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?"
+        + " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER + " limit 1 offset ?";
+
+    public static void main(String[] args) throws Exception {
+        //the smallest size again first, warming up the JIT
+        run(SCHEDULES[0], false);
+        for (int schedules : SCHEDULES) {
+            run(schedules, true);
+        }
+    }
+
+    private static void run(int schedules, boolean print) throws Exception {
+        Connection c = ScheduleTestDatabase.open(ScheduleTestDatabase.newUrl());
+        ScheduleTestDatabase.create(c);
+        ScheduleTestDatabase.seed(c, schedules, 42);
+
+        PreparedStatement list = c.prepareStatement(LIST_QUERY);
+        PreparedStatement firstPage = c.prepareStatement(FIRST_PAGE_QUERY);
+        PreparedStatement nextPage = c.prepareStatement(NEXT_PAGE_QUERY);
+        PreparedStatement middle = c.prepareStatement(MIDDLE_QUERY);
+
+        long listNanos = 0;
+        long firstPageNanos = 0;
+        long nextPageNanos = 0;
+        int rows = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            int type = i % ScheduleTestDatabase.TYPES;
+            list.setInt(1, type);
+            firstPage.setInt(1, type);
+
+            long startedAt = System.nanoTime();
+            int listRows = readAll(list).size();
+            listNanos += System.nanoTime() - startedAt;
+            rows += listRows;
+
+            startedAt = System.nanoTime();
+            readAll(firstPage);
+            firstPageNanos += System.nanoTime() - startedAt;
+
+            middle.setInt(1, type);
+            middle.setInt(2, listRows / 2);
+            ResultSet rs = middle.executeQuery();
+            rs.next();
+            nextPage.setInt(1, type);
+            nextPage.setInt(2, rs.getInt(1));
+            nextPage.setInt(3, rs.getInt(1));
+            nextPage.setInt(4, rs.getInt(2));
+            rs.close();
+
+            startedAt = System.nanoTime();
+            readAll(nextPage);
+            nextPageNanos += System.nanoTime() - startedAt;
+        }
+
+        if (print) {
+            System.out.printf("%d schedules: whole list of %d rows %.2fms, first page %.3fms, middle page %.3fms%n", 
+                              schedules, rows / ROUNDS, listNanos / 1e6 / ROUNDS, 
+                              firstPageNanos / 1e6 / ROUNDS, nextPageNanos / 1e6 / ROUNDS);
+        }
+
+        list.close();
+        firstPage.close();
+        nextPage.close();
+        middle.close();
+        c.close();
+    }
+
+    /*
+     * every row of the list, each made into a Schedule
+     */
+    private static ArrayList<Schedule> readAll(PreparedStatement list) throws SQLException {
+        ArrayList<Schedule> schedules = new ArrayList<Schedule>();
+
+        ResultSet rs = list.executeQuery();
+        while (rs.next()) {
+            schedules.add(new Schedule(rs.getInt(1), (byte) rs.getInt(2), rs.getInt(3), rs.getInt(4),
+                                       rs.getInt(5), rs.getInt(6), rs.getInt(7) > 0, rs.getInt(8) > 0));
+        }
+        rs.close();
+
+        return schedules;
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.roozen.SoundManagerv2.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Runs the schedule list and single row queries on the helper's schema
+ * while a writer updates schedules, and checks the readers aren't held up
+ * by the writer with write-ahead logging on. Run as a program, it prints
+ * the read latencies with the rollback journal and with WAL side by side.
+ *
+ * Every thread has its own connection, as SQLiteDatabase's pool gives the
+ * readers with WAL on; the busy timeout makes readers wait on a writer the
+ * way the single connection's lock does without it. See test/README.
+ *
+ * @author Mike Partridge
+ */
+public class DatabaseContentionTest {
+
+    private static final int SCHEDULES = 500;
+    private static final int READERS = 3;
+    private static final int WRITERS = 1;
+    private static final int PAGE_SIZE = 40;
+
+    //99th percentile read, in micros, with WAL on; the rollback journal's is over a second
+    private static final long WAL_P99_BOUND = 50000;
+
+    private static final String COLUMNS = 
+        SQLiteDatabaseHelper.SCHEDULE_ID + ", " + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", " + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", " + SQLiteDatabaseHelper.SCHEDULE_VIBRATE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + ", " + SQLiteDatabaseHelper.SCHEDULE_DAYS + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY;
+
+    //the provider's SQL path for one page of a type's schedules
+    private static final String PAGE_QUERY =
+        "select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+        + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?"
+        + " AND (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + ">? OR (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY 
+        + "=? AND " + SQLiteDatabaseHelper.SCHEDULE_ID + ">?))"
+        + " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER + " limit " + PAGE_SIZE;
+
+    private static final String ROW_QUERY =
+        "select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+        + " where " + SQLiteDatabaseHelper.SCHEDULE_ID + "=?";
+
+    private static final String UPDATE =
+        "update " + SQLiteDatabaseHelper.SCHEDULE_TABLE + " set " + SQLiteDatabaseHelper.SCHEDULE_VOLUME + "=?, " 
+        + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=? where " + SQLiteDatabaseHelper.SCHEDULE_ID + "=?";
+
+    /**
+     * prints both journal modes' read latencies, [seconds] each
+     */
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        System.out.println(READERS + " readers, " + WRITERS + " writers, " + SCHEDULES + " schedules, "
+                           + seconds + "s per mode");
+        for (String journalMode : new String[] {"delete", "wal"}) {
+            Result result = run(journalMode, seconds);
+            System.out.println(result.mode + ": " + result.reads.length + " reads, " + result.writes + " writes, "
+                               + result.failures + " failed; read p50 " + result.percentile(50)
+                               + "us, p90 " + result.percentile(90) + "us, p99 " + result.percentile(99)
+                               + "us, max " + result.percentile(100) + "us");
+        }
+    }
+
+    @Test
+    public void walReadsAreNotHeldUpByWrites() throws Exception {
+        Result result = run("wal", 5);
+
+        assertEquals("wal", result.mode);
+        assertEquals(0, result.failures);
+        assertTrue("no writes", result.writes > 0);
+        assertTrue("read p99 " + result.percentile(99) + "us", result.percentile(99) < WAL_P99_BOUND);
+    }
+
+    /*
+     * read latencies, sorted, and counts of one timed run
+     */
+    private static class Result {
+        String mode;
+        long[] reads;
+        int writes;
+        int failures;
+
+        /*
+         * in micros
+         */
+        long percentile(int percent) {
+            if (reads.length == 0) {
+                return 0;
+            }
+            int index = Math.min(reads.length - 1, (int) ((long) reads.length * percent / 100));
+            return reads[index] / 1000;
+        }
+    }
+
+    /*
+     * one timed run in the given journal mode, on a fresh db
+     */
+    private static Result run(String journalMode, int seconds) throws Exception {
+        String url = ScheduleTestDatabase.newUrl();
+        Result result = new Result();
+
+        Connection setup = ScheduleTestDatabase.open(url);
+        Statement st = setup.createStatement();
+        ResultSet mode = st.executeQuery("pragma journal_mode=" + journalMode);
+        mode.next();
+        result.mode = mode.getString(1);
+        mode.close();
+        st.close();
+        ScheduleTestDatabase.create(setup);
+        ScheduleTestDatabase.seed(setup, SCHEDULES, 42);
+
+        final long stopAt = System.nanoTime() + seconds * 1000000000L;
+        final long[][] latencies = new long[READERS][];
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(READERS + WRITERS);
+
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            final Connection c = ScheduleTestDatabase.open(url);
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latencies[reader] = read(c, stopAt, failures);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        for (int w = 0; w < WRITERS; w++) {
+            final Connection c = ScheduleTestDatabase.open(url);
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        write(c, stopAt, writes, failures);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        done.await();
+        setup.close();
+
+        int count = 0;
+        for (long[] l : latencies) {
+            count += l.length;
+        }
+        result.reads = new long[count];
+        int at = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, result.reads, at, l.length);
+            at += l.length;
+        }
+        Arrays.sort(result.reads);
+        result.writes = writes.get();
+        result.failures = failures.get();
+
+        return result;
+    }
+
+    /*
+     * alternates a full list read, page by page, with single row reads
+     */
+    private static long[] read(Connection c, long stopAt, AtomicInteger failures) {
+        long[] latencies = new long[1024];
+        int size = 0;
+        Random random = new Random();
+
+        try {
+            PreparedStatement page = c.prepareStatement(PAGE_QUERY);
+            PreparedStatement row = c.prepareStatement(ROW_QUERY);
+
+            while (System.nanoTime() < stopAt) {
+                long startedAt = System.nanoTime();
+                try {
+                    if (random.nextBoolean()) {
+                        readList(page, random.nextInt(ScheduleTestDatabase.TYPES));
+                    }
+                    else {
+                        row.setInt(1, 1 + random.nextInt(SCHEDULES));
+                        drain(row.executeQuery());
+                    }
+                }
+                catch (SQLException e) {
+                    failures.incrementAndGet();
+                    continue;
+                }
+
+                if (size == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, size * 2);
+                }
+                latencies[size++] = System.nanoTime() - startedAt;
+            }
+
+            c.close();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return Arrays.copyOf(latencies, size);
+    }
+
+    private static void readList(PreparedStatement page, int type) throws SQLException {
+        int afterSortKey = -1;
+        int afterId = -1;
+
+        while (true) {
+            page.setInt(1, type);
+            page.setInt(2, afterSortKey);
+            page.setInt(3, afterSortKey);
+            page.setInt(4, afterId);
+
+            ResultSet rs = page.executeQuery();
+            int rows = 0;
+            while (rs.next()) {
+                afterId = rs.getInt(1);
+                afterSortKey = rs.getInt(9);
+                rows++;
+            }
+            rs.close();
+
+            if (rows < PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * small transactions, like the provider's single row updates
+     */
+    private static void write(Connection c, long stopAt, AtomicInteger writes, AtomicInteger failures) {
+        Random random = new Random();
+
+        try {
+            PreparedStatement update = c.prepareStatement(UPDATE);
+
+            while (System.nanoTime() < stopAt) {
+                try {
+                    c.setAutoCommit(false);
+                    update.setInt(1, random.nextInt(8));
+                    update.setInt(2, random.nextInt(2));
+                    update.setInt(3, 1 + random.nextInt(SCHEDULES));
+                    update.executeUpdate();
+                    c.commit();
+                    writes.incrementAndGet();
+                }
+                catch (SQLException e) {
+                    failures.incrementAndGet();
+                    c.rollback();
+                }
+                finally {
+                    c.setAutoCommit(true);
+                }
+            }
+
+            c.close();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void drain(ResultSet rs) throws SQLException {
+        while (rs.next()) {
+            rs.getInt(1);
+        }
+        rs.close();
+    }
+
+}
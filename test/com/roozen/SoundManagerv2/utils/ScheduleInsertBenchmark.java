@@ -0,0 +1,78 @@
+package com.roozen.SoundManagerv2.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Times inserting 1,000 schedules into the helper's schema one row per
+ * transaction, as single provider inserts commit, against all of them in
+ * one transaction, on a fresh db file for each; see test/README
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleInsertBenchmark {
+
+    private static final int SCHEDULES = 1000;
+    private static final int ROUNDS = 3;
+
+    private static final String INSERT =
+        "insert into " + SQLiteDatabaseHelper.SCHEDULE_TABLE + " (" 
+        + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", " + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", " + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_DAYS + ") values (?,?,?,?,?)";
+
+    public static void main(String[] args) throws Exception {
+        for (String journalMode : new String[] {"delete", "wal"}) {
+            for (int round = 0; round < ROUNDS; round++) {
+                long perRow = run(journalMode, false);
+                long oneTransaction = run(journalMode, true);
+
+                System.out.println(journalMode + ": " + SCHEDULES + " rows, per-row commits " + perRow 
+                                   + "ms, one transaction " + oneTransaction + "ms");
+            }
+        }
+    }
+
+    /*
+     * millis to insert every row, on a new db in the given journal mode
+     */
+    private static long run(String journalMode, boolean oneTransaction) throws Exception {
+        Connection c = ScheduleTestDatabase.open(ScheduleTestDatabase.newUrl());
+        Statement st = c.createStatement();
+        st.execute("pragma journal_mode=" + journalMode);
+        st.close();
+        ScheduleTestDatabase.create(c);
+
+        Random random = new Random(42);
+        PreparedStatement insert = c.prepareStatement(INSERT);
+
+        long startedAt = System.nanoTime();
+        if (oneTransaction) {
+            c.setAutoCommit(false);
+        }
+        for (int i = 0; i < SCHEDULES; i++) {
+            insert(insert, random);
+        }
+        if (oneTransaction) {
+            c.commit();
+        }
+        long millis = (System.nanoTime() - startedAt) / 1000000;
+
+        insert.close();
+        c.close();
+        return millis;
+    }
+
+    private static void insert(PreparedStatement insert, Random random) throws SQLException {
+        insert.setInt(1, random.nextInt(ScheduleTestDatabase.TYPES));
+        insert.setInt(2, random.nextInt(24));
+        insert.setInt(3, random.nextInt(60));
+        insert.setInt(4, random.nextInt(8));
+        insert.setInt(5, 1 + random.nextInt(127));
+        insert.executeUpdate();
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.roozen.SoundManagerv2.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the provider's schedule queries are
+ * answered from their indexes, without sorting, on the helper's schema
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleQueryPlanTest {
+
+    private static final String COLUMNS = 
+        SQLiteDatabaseHelper.SCHEDULE_ID + ", " + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", " + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", " + SQLiteDatabaseHelper.SCHEDULE_VIBRATE + ", "
+        + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + ", " + SQLiteDatabaseHelper.SCHEDULE_DAYS;
+
+    private Connection mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mDb = ScheduleTestDatabase.open("jdbc:sqlite::memory:");
+        ScheduleTestDatabase.create(mDb);
+        ScheduleTestDatabase.seed(mDb, 500, 42);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDb.close();
+    }
+
+    @Test
+    public void firstListPageReadsTypeIndexInOrder() throws Exception {
+        String plan = explain("select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                              + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?"
+                              + " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER + " limit 40", 
+                              2);
+
+        assertUsesIndex(plan, SQLiteDatabaseHelper.SCHEDULE_TYPE_INDEX_NAME);
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void nextListPageSeeksTypeIndex() throws Exception {
+        String plan = explain("select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                              + " where " + SQLiteDatabaseHelper.SCHEDULE_TYPE + "=?"
+                              + " AND (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + ">700"
+                              + " OR (" + SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + "=700"
+                              + " AND " + SQLiteDatabaseHelper.SCHEDULE_ID + ">120))"
+                              + " order by " + SQLiteDatabaseHelper.SCHEDULE_DEFAULT_ORDER + " limit 40", 
+                              2);
+
+        assertUsesIndex(plan, SQLiteDatabaseHelper.SCHEDULE_TYPE_INDEX_NAME);
+        assertTrue(plan, plan.contains(SQLiteDatabaseHelper.SCHEDULE_SORT_KEY + ">?"));
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void activeSchedulesReadActiveIndex() throws Exception {
+        String plan = explain("select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                              + " where " + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1"
+                              + " order by " + SQLiteDatabaseHelper.SCHEDULE_TYPE);
+
+        assertUsesIndex(plan, SQLiteDatabaseHelper.SCHEDULE_ACTIVE_INDEX_NAME);
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void activeCountsReadActiveIndex() throws Exception {
+        String plan = explain("select " + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", count(*)"
+                              + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                              + " where " + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + "=1"
+                              + " group by " + SQLiteDatabaseHelper.SCHEDULE_TYPE
+                              + " order by " + SQLiteDatabaseHelper.SCHEDULE_TYPE);
+
+        assertUsesIndex(plan, SQLiteDatabaseHelper.SCHEDULE_ACTIVE_INDEX_NAME);
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void daysMaskReadsDaysIndex() throws Exception {
+        String plan = explain("select " + COLUMNS + " from " + SQLiteDatabaseHelper.SCHEDULE_TABLE 
+                              + " where " + SQLiteDatabaseHelper.SCHEDULE_DAYS + "=?", 
+                              127);
+
+        assertUsesIndex(plan, SQLiteDatabaseHelper.SCHEDULE_DAYS_INDEX_NAME);
+    }
+
+    /*
+     * the detail column of every row of the plan, one per line
+     */
+    private String explain(String sql, int... args) throws SQLException {
+        PreparedStatement st = mDb.prepareStatement("explain query plan " + sql);
+        for (int i = 0; i < args.length; i++) {
+            st.setInt(i + 1, args[i]);
+        }
+
+        StringBuilder plan = new StringBuilder();
+        ResultSet rs = st.executeQuery();
+        while (rs.next()) {
+            plan.append(rs.getString("detail")).append('\n');
+        }
+        rs.close();
+        st.close();
+
+        return plan.toString();
+    }
+
+    private static void assertUsesIndex(String plan, String index) {
+        assertTrue(plan, plan.contains("INDEX " + index + " "));
+        assertFalse(plan, plan.contains("SCAN " + SQLiteDatabaseHelper.SCHEDULE_TABLE + "\n"));
+    }
+
+    private static void assertNoSort(String plan) {
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+}
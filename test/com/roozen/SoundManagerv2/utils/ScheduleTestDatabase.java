@@ -0,0 +1,100 @@
+package com.roozen.SoundManagerv2.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Schedules db on local SQLite through JDBC, created from SQLiteDatabaseHelper's
+ * own schema, for the tests and benchmarks that run outside of Android
+ *
+ * @author Mike Partridge
+ */
+public class ScheduleTestDatabase {
+
+    /**
+     * stream types the seeded schedules are spread over, as in AudioManager
+     */
+    public static final int TYPES = 6;
+
+    /**
+     * @return url of a new, empty db file, deleted when the JVM exits
+     * @throws IOException
+     */
+    public static String newUrl() throws IOException {
+        File file = File.createTempFile("schedules", ".db");
+        file.deleteOnExit();
+        return "jdbc:sqlite:" + file.getPath();
+    }
+
+    /**
+     * Opens a connection that waits on another's lock instead of failing,
+     * the way SQLiteDatabase's single connection serializes its callers
+     *
+     * @param url
+     * @return Connection
+     * @throws SQLException
+     */
+    public static Connection open(String url) throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        Statement st = c.createStatement();
+        st.execute("pragma busy_timeout=5000");
+        st.close();
+        return c;
+    }
+
+    /**
+     * Creates the schedule tables, indexes and triggers, as onCreate does
+     *
+     * @param c
+     * @throws SQLException
+     */
+    public static void create(Connection c) throws SQLException {
+        Statement st = c.createStatement();
+        for (String sql : SQLiteDatabaseHelper.getScheduleSchema()) {
+            st.execute(sql);
+        }
+        st.close();
+    }
+
+    /**
+     * Inserts random schedules in one transaction; the helper's trigger
+     * keeps their sort keys
+     *
+     * @param c
+     * @param schedules
+     * @param seed
+     * @throws SQLException
+     */
+    public static void seed(Connection c, int schedules, long seed) throws SQLException {
+        Random random = new Random(seed);
+        PreparedStatement insert = c.prepareStatement(
+            "insert into " + SQLiteDatabaseHelper.SCHEDULE_TABLE + " (" 
+            + SQLiteDatabaseHelper.SCHEDULE_TYPE + ", " + SQLiteDatabaseHelper.SCHEDULE_START_HOUR + ", "
+            + SQLiteDatabaseHelper.SCHEDULE_START_MINUTE + ", " + SQLiteDatabaseHelper.SCHEDULE_VOLUME + ", "
+            + SQLiteDatabaseHelper.SCHEDULE_VIBRATE + ", " + SQLiteDatabaseHelper.SCHEDULE_ACTIVE + ", "
+            + SQLiteDatabaseHelper.SCHEDULE_DAYS + ") values (?,?,?,?,?,?,?)");
+
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        for (int i = 0; i < schedules; i++) {
+            insert.setInt(1, random.nextInt(TYPES));
+            insert.setInt(2, random.nextInt(24));
+            insert.setInt(3, random.nextInt(60));
+            insert.setInt(4, random.nextInt(8));
+            insert.setInt(5, random.nextInt(2));
+            insert.setInt(6, random.nextInt(2));
+            insert.setInt(7, 1 + random.nextInt(127));
+            insert.executeUpdate();
+        }
+        c.commit();
+        c.setAutoCommit(autoCommit);
+        insert.close();
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2009 Mike Partridge
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, 
+ * software distributed under the License is distributed 
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language 
+ * governing permissions and limitations under the License. 
+ */
+package com.roozen.SoundManagerv2.schedule;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.widget.FrameLayout;
+
+/**
+ * Binds a recycled ScheduleView the way the list does and counts what the
+ * binds allocate. See tests/README
+ * 
+ * @author Mike Partridge
+ */
+public class ScheduleViewBindTest extends InstrumentationTestCase {
+
+    private static final int BINDS = 100;
+    
+    //differ in every field, vibrate's visibility included
+    private static final long RING = new Schedule(1, (byte) 0x15, 7, 30, 3, 
+                                                  AudioManager.STREAM_RING, true, true).pack();
+    private static final long MUSIC = new Schedule(2, (byte) 0x6a, 22, 5, 5, 
+                                                   AudioManager.STREAM_MUSIC, false, false).pack();
+    
+    private ScheduleView mView;
+    
+    /* (non-Javadoc)
+     * @see android.test.InstrumentationTestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        Context context = getInstrumentation().getTargetContext();
+        mView = ScheduleView.inflate(context, new FrameLayout(context));
+    }
+    
+    /**
+     * Rebinding a recycled view to another schedule allocates nothing once
+     * both schedules' labels have been built
+     */
+    @UiThreadTest
+    public void testRebindDoesNotAllocate() {
+        //labels, max volumes and drawable state are built on the first binds
+        mView.setFromPacked(RING);
+        mView.setFromPacked(MUSIC);
+        
+        assertEquals(0, countBindAllocs(RING, MUSIC));
+    }
+    
+    /**
+     * Rebinding the schedule a view already shows allocates nothing
+     */
+    @UiThreadTest
+    public void testSameBindDoesNotAllocate() {
+        mView.setFromPacked(RING);
+        
+        assertEquals(0, countBindAllocs(RING, RING));
+    }
+    
+    /*
+     * allocations made binding the schedules in turn
+     */
+    private int countBindAllocs(long first, long second) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        
+        for (int i = 0; i < BINDS; i++) {
+            mView.setFromPacked(i % 2 == 0 ? first : second);
+        }
+        
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+    
+}